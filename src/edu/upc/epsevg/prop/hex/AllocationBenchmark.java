@@ -0,0 +1,116 @@
+package edu.upc.epsevg.prop.hex;
+
+import edu.upc.epsevg.prop.hex.heuristic.Dijkstra;
+
+import java.awt.Point;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Banco de pruebas de la memoria que reserva {@link Dijkstra} en cada llamada.
+ * <p>
+ * Llena un tercio del tablero con fichas al azar (siempre con la misma semilla), calienta
+ * el JIT y después mide con {@code ThreadMXBean.getThreadAllocatedBytes} los bytes
+ * reservados por el hilo en cada llamada y el tiempo medio. Las llamadas con índices de
+ * casilla deberían dar {@code 0} bytes; la de {@link Point} reserva la lista que retorna.
+ * <p>
+ * Uso: {@code AllocationBenchmark [tamaño] [llamadas]}.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class AllocationBenchmark {
+
+    private static final com.sun.management.ThreadMXBean MX =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int size  = args.length > 0 ? Integer.parseInt(args[0]) : 11;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        if (!MX.isThreadAllocatedMemorySupported()) {
+            System.out.println("La JVM no permite medir la memoria reservada por hilo");
+            return;
+        }
+        MX.setThreadAllocatedMemoryEnabled(true);
+
+        SearchBoard b = new SearchBoard(position(size));
+        Dijkstra d = new Dijkstra(size);
+        int[] stones = new int[size * size];
+        int m = 0;
+        for (int c = 0; c < size * size; ++c) {
+            if (b.getPos(c) != 0) {
+                stones[m++] = c;
+            }
+        }
+        int[] path = new int[size * size + 1];
+        int n = m;
+
+        Runnable fromCell = () -> {
+            for (int i = 0; i < calls; ++i) {
+                int c = stones[i % n];
+                sink += d.dijkstra(b, b.getPos(c) == 1 ? PlayerType.PLAYER1 : PlayerType.PLAYER2, c);
+            }
+        };
+        Runnable connection = () -> {
+            for (int i = 0; i < calls; ++i) {
+                sink += d.connectionCost(b, i % 2 == 0 ? PlayerType.PLAYER1 : PlayerType.PLAYER2);
+            }
+        };
+        Runnable edgePath = () -> {
+            for (int i = 0; i < calls; ++i) {
+                sink += d.edgePath(b, i % 2 == 0 ? PlayerType.PLAYER1 : PlayerType.PLAYER2, path);
+            }
+        };
+        Runnable fromPoint = () -> {
+            for (int i = 0; i < calls; ++i) {
+                int c = stones[i % n];
+                sink += d.dijkstra(b, PlayerType.PLAYER1, new Point(c / size, c % size)).size();
+            }
+        };
+
+        System.out.printf("Tablero %dx%d, %d llamadas%n", size, size, calls);
+        System.out.println("llamada\t\t\t\tbytes/llamada\tus/llamada");
+        run("dijkstra(SearchBoard, int)", fromCell, calls);
+        run("connectionCost", connection, calls);
+        run("edgePath", edgePath, calls);
+        run("dijkstra(SearchBoard, Point)", fromPoint, calls);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Posición de prueba: un tercio de las casillas ocupadas al azar.
+     * @param size El tamaño del tablero.
+     * @return     El estado del juego.
+     */
+    static HexGameStatus position(int size) {
+        HexGameStatus s = new HexGameStatus(size);
+        Random r = new Random(3);
+        for (int i = 0; i < size * size / 3; ++i) {
+            int x, y;
+            do {
+                x = r.nextInt(size);
+                y = r.nextInt(size);
+            } while (s.getPos(x, y) != 0);
+            s.placeStone(new Point(x, y));
+        }
+        return s;
+    }
+
+    private static void run(String label, Runnable calls, int n) {
+        // Calentamiento, para medir el código ya compilado por el JIT
+        calls.run();
+        calls.run();
+
+        long tid = Thread.currentThread().getId();
+        long before = MX.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        calls.run();
+        long t1 = System.nanoTime();
+        long after = MX.getThreadAllocatedBytes(tid);
+        System.out.printf("%-32s%.2f\t\t%.2f%n", label, (after - before) / (double)n, (t1 - t0) / 1e3 / n);
+    }
+}
@@ -0,0 +1,370 @@
+package edu.upc.epsevg.prop.hex;
+
+import java.util.Arrays;
+
+/**
+ * Representación del tablero de Hex con un bitset de {@code long} por color.
+ * <p>
+ * La casilla {@code (x, y)} es el bit {@code x * size + y}. Caben tableros de hasta
+ * {@link #MAX_SIZE}x{@link #MAX_SIZE} (361 bits, 6 palabras). Para cada tamaño se
+ * precalculan una sola vez la máscara del tablero, las máscaras de los cuatro lados y la
+ * máscara de vecinos de cada casilla.
+ * <p>
+ * La conectividad se calcula con un flood fill en paralelo de bits: en cada paso se
+ * añaden a la región todos sus vecinos del mismo color desplazando el bitset en las
+ * seis direcciones hexagonales. Contar casillas vacías, generar movimientos o saber si
+ * un jugador ha ganado se reduce a unas pocas operaciones por palabra.
+ * <p>
+ * Las instancias no son seguras entre hilos: cada hilo ha de usar la suya.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class BitBoard {
+    /**
+     * Tamaño máximo de tablero soportado.
+     */
+    public static final int MAX_SIZE = Zobrist.MAX_SIZE;
+
+    /**
+     * Máscaras precalculadas de un tamaño de tablero. Son inmutables y se comparten.
+     */
+    private static final class Masks {
+        final int words;
+        final long[] board;
+        final long[] notFirstY;
+        final long[] notLastY;
+        // Lado inicial y final del jugador 1 (x = 0, x = size - 1) y del jugador 2 (y = 0, y = size - 1)
+        final long[][] start = new long[2][];
+        final long[][] end   = new long[2][];
+        final long[][] neigh;
+
+        Masks(int size) {
+            int n = size * size;
+            this.words     = (n + 63) >>> 6;
+            this.board     = new long[words];
+            this.notFirstY = new long[words];
+            this.notLastY  = new long[words];
+            for (int i = 0; i < 2; ++i) {
+                start[i] = new long[words];
+                end[i]   = new long[words];
+            }
+            for (int x = 0; x < size; ++x) {
+                for (int y = 0; y < size; ++y) {
+                    int c = x * size + y;
+                    set(board, c);
+                    if (y != 0)        set(notFirstY, c);
+                    if (y != size - 1) set(notLastY, c);
+                    if (x == 0)        set(start[0], c);
+                    if (x == size - 1) set(end[0], c);
+                    if (y == 0)        set(start[1], c);
+                    if (y == size - 1) set(end[1], c);
+                }
+            }
+            this.neigh = new long[n][];
+            int[][] dirs = {{0, -1}, {1, -1}, {-1, 0}, {1, 0}, {-1, 1}, {0, 1}};
+            for (int x = 0; x < size; ++x) {
+                for (int y = 0; y < size; ++y) {
+                    long[] m = new long[words];
+                    for (int[] d : dirs) {
+                        int nx = x + d[0], ny = y + d[1];
+                        if (nx >= 0 && ny >= 0 && nx < size && ny < size)
+                            set(m, nx * size + ny);
+                    }
+                    neigh[x * size + y] = m;
+                }
+            }
+        }
+    }
+
+    private static final Masks[] MASKS = new Masks[MAX_SIZE + 1];
+
+    private static synchronized Masks masks(int size) {
+        if (size < 2 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Board size " + size + " not supported");
+        }
+        if (MASKS[size] == null) {
+            MASKS[size] = new Masks(size);
+        }
+        return MASKS[size];
+    }
+
+    private final int size;
+    private final Masks m;
+    private final int words;
+    private final long[][] stones;
+
+    // Auxiliares del flood fill
+    private final long[] region;
+    private final long[] next;
+
+    /**
+     * Construye un tablero vacío.
+     * @param size El tamaño del tablero.
+     */
+    public BitBoard(int size) {
+        this.size   = size;
+        this.m      = masks(size);
+        this.words  = m.words;
+        this.stones = new long[2][words];
+        this.region = new long[words];
+        this.next   = new long[words];
+    }
+
+    /**
+     * Construye el tablero a partir del estado del juego.
+     * @param hgs El estado del juego.
+     */
+    public BitBoard(HexGameStatus hgs) {
+        this(hgs.getSize());
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                int color = hgs.getPos(x, y);
+                if (color != 0)
+                    set(x * size + y, color);
+            }
+        }
+    }
+
+    /**
+     * Constructor de copia.
+     * @param other El tablero a copiar.
+     */
+    public BitBoard(BitBoard other) {
+        this(other.size);
+        copyFrom(other);
+    }
+
+    /**
+     * Copia las fichas de otro tablero del mismo tamaño.
+     * @param other El tablero a copiar.
+     */
+    public void copyFrom(BitBoard other) {
+        System.arraycopy(other.stones[0], 0, stones[0], 0, words);
+        System.arraycopy(other.stones[1], 0, stones[1], 0, words);
+    }
+
+    /**
+     * Retorna el tamaño del tablero.
+     * @return El tamaño del tablero.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Retorna el color de una casilla.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     {@code 1}, {@code -1} o {@code 0} si está vacía.
+     */
+    public int get(int cell) {
+        long bit = 1L << cell;
+        int w = cell >>> 6;
+        if ((stones[0][w] & bit) != 0)
+            return 1;
+        if ((stones[1][w] & bit) != 0)
+            return -1;
+        return 0;
+    }
+
+    /**
+     * Coloca una ficha.
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @param color Color de la ficha ({@code 1} o {@code -1}).
+     */
+    public void set(int cell, int color) {
+        stones[color == 1 ? 0 : 1][cell >>> 6] |= 1L << cell;
+    }
+
+    /**
+     * Vacía una casilla.
+     * @param cell La casilla como índice {@code x * size + y}.
+     */
+    public void clear(int cell) {
+        long mask = ~(1L << cell);
+        stones[0][cell >>> 6] &= mask;
+        stones[1][cell >>> 6] &= mask;
+    }
+
+    /**
+     * Retorna el bitset de las fichas de un color. No se debe modificar.
+     * @param color Color de las fichas ({@code 1} o {@code -1}).
+     * @return      El bitset.
+     */
+    public long[] stones(int color) {
+        return stones[color == 1 ? 0 : 1];
+    }
+
+    /**
+     * Retorna la máscara de vecinos de una casilla. No se debe modificar.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     El bitset de vecinos.
+     */
+    public long[] neighbourMask(int cell) {
+        return m.neigh[cell];
+    }
+
+    /**
+     * Cuenta los vecinos de una casilla de un color.
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @param color Color a contar ({@code 1}, {@code -1} o {@code 0} para las vacías).
+     * @return      El número de vecinos de ese color.
+     */
+    public int countNeighbours(int cell, int color) {
+        long[] nb = m.neigh[cell];
+        int count = 0;
+        for (int i = 0; i < words; ++i) {
+            long bits = color == 0 ? nb[i] & ~(stones[0][i] | stones[1][i])
+                                   : nb[i] & stones[color == 1 ? 0 : 1][i];
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    /**
+     * Cuenta las casillas vacías.
+     * @return El número de casillas vacías.
+     */
+    public int countEmpty() {
+        int count = 0;
+        for (int i = 0; i < words; ++i)
+            count += Long.bitCount(m.board[i] & ~(stones[0][i] | stones[1][i]));
+        return count;
+    }
+
+    /**
+     * Retorna el número de palabras de los bitsets de este tamaño de tablero.
+     * @return El número de {@code long} de cada bitset.
+     */
+    public int words() {
+        return words;
+    }
+
+    /**
+     * Escribe en {@code out} el bitset de las casillas vacías.
+     * @param out Array de al menos {@link #words()} posiciones.
+     */
+    public void empty(long[] out) {
+        for (int i = 0; i < words; ++i)
+            out[i] = m.board[i] & ~(stones[0][i] | stones[1][i]);
+    }
+
+    /**
+     * Escribe en {@code out} las casillas vacías en orden creciente de índice.
+     * @param out Array con espacio para todas las casillas vacías.
+     * @return    El número de casillas escritas.
+     */
+    public int emptyCells(int[] out) {
+        int n = 0;
+        for (int i = 0; i < words; ++i) {
+            long bits = m.board[i] & ~(stones[0][i] | stones[1][i]);
+            while (bits != 0) {
+                out[n++] = (i << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Consulta si las fichas de un color unen sus dos lados.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @return      {@code true} si el jugador ha ganado.
+     */
+    public boolean connects(int color) {
+        int c = color == 1 ? 0 : 1;
+        long[] own = stones[c];
+        boolean any = false;
+        for (int i = 0; i < words; ++i) {
+            region[i] = own[i] & m.start[c][i];
+            any |= region[i] != 0;
+        }
+        return any && floodReaches(own, m.end[c]);
+    }
+
+    /**
+     * Consulta si el grupo de la ficha de una casilla une los dos lados de su color.
+     * <p>
+     * Como solo la última ficha colocada puede dar la victoria, basta con mirar su grupo.
+     * @param cell La casilla como índice {@code x * size + y}, que ha de tener una ficha.
+     * @return     {@code true} si el grupo une los dos lados.
+     */
+    public boolean groupConnects(int cell) {
+        int c = get(cell) == 1 ? 0 : 1;
+        Arrays.fill(region, 0);
+        region[cell >>> 6] = 1L << cell;
+        long[] own = stones[c];
+        // Extendemos el grupo hasta que no crece; después miramos si toca los dos lados
+        floodReaches(own, null);
+        return intersects(region, m.start[c]) && intersects(region, m.end[c]);
+    }
+
+    /**
+     * Extiende {@code region} con los vecinos en {@code own} hasta que no crece.
+     * @param own    Bitset de las casillas por las que se puede extender.
+     * @param target Si no es {@code null}, se detiene en cuanto la región lo toca.
+     * @return       {@code true} si la región ha llegado a {@code target}.
+     */
+    private boolean floodReaches(long[] own, long[] target) {
+        while (true) {
+            if (target != null && intersects(region, target))
+                return true;
+            boolean changed = false;
+            expand(region, next);
+            for (int i = 0; i < words; ++i) {
+                long v = next[i] & own[i];
+                changed |= v != region[i];
+                region[i] = v;
+            }
+            if (!changed)
+                return false;
+        }
+    }
+
+    /**
+     * Calcula en {@code dst} el conjunto {@code src} más todos sus vecinos hexagonales.
+     * <p>
+     * Los vecinos de {@code (x, y)} son {@code c - 1}, {@code c + 1}, {@code c - size},
+     * {@code c + size}, {@code c + size - 1} y {@code c - size + 1}. Los desplazamientos que
+     * cambian {@code y} se enmascaran para que no salten de una columna a la siguiente.
+     */
+    private void expand(long[] src, long[] dst) {
+        int s = size;
+        for (int i = 0; i < words; ++i) {
+            long v = src[i]
+                   | (shl(src, i, 1) & m.notFirstY[i])
+                   | (shr(src, i, 1) & m.notLastY[i])
+                   | shl(src, i, s)
+                   | shr(src, i, s)
+                   | (shl(src, i, s - 1) & m.notLastY[i])
+                   | (shr(src, i, s - 1) & m.notFirstY[i]);
+            dst[i] = v & m.board[i];
+        }
+    }
+
+    private static long shl(long[] a, int i, int k) {
+        long v = a[i] << k;
+        if (i > 0)
+            v |= a[i - 1] >>> (64 - k);
+        return v;
+    }
+
+    private long shr(long[] a, int i, int k) {
+        long v = a[i] >>> k;
+        if (i + 1 < words)
+            v |= a[i + 1] << (64 - k);
+        return v;
+    }
+
+    private boolean intersects(long[] a, long[] b) {
+        for (int i = 0; i < words; ++i) {
+            if ((a[i] & b[i]) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static void set(long[] bits, int cell) {
+        bits[cell >>> 6] |= 1L << cell;
+    }
+}
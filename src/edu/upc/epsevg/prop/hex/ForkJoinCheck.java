@@ -0,0 +1,88 @@
+package edu.upc.epsevg.prop.hex;
+
+import edu.upc.epsevg.prop.hex.players.PathOfMinMax;
+
+import java.awt.Point;
+import java.util.Random;
+
+/**
+ * Comprueba que la búsqueda de {@link PathOfMinMax#setForkJoin(int)} es determinista.
+ * <p>
+ * Para varias posiciones fijas (tableros de 5x5 a 9x9 con fichas al azar, siempre con la
+ * misma semilla) busca con Young Brothers Wait y con la búsqueda secuencial sin tabla de
+ * transposiciones ({@code new PathOfMinMax(nombre, profundidad, 0)}) a la misma
+ * profundidad, y compara las jugadas. Si alguna es distinta termina con código {@code 1}.
+ * <p>
+ * Uso: {@code ForkJoinCheck [hilos]}.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class ForkJoinCheck {
+
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+
+        Random r = new Random(7);
+        int total = 0, wrong = 0;
+        System.out.println("tamaño\tprof.\tsecuencial\tparalela");
+        for (int size : new int[]{5, 7, 9}) {
+            for (int k = 0; k < 3; ++k) {
+                HexGameStatus s = position(size, 2 + 2 * k, r);
+                for (int depth = 2; depth <= (size == 9 ? 3 : 4); ++depth) {
+                    Point serial   = search(s, depth, 0);
+                    Point parallel = search(s, depth, threads);
+                    ++total;
+                    boolean same = serial.equals(parallel);
+                    if (!same) {
+                        ++wrong;
+                    }
+                    System.out.printf("%d\t%d\t[%d, %d]\t\t[%d, %d]%s%n", size, depth, serial.x, serial.y,
+                                      parallel.x, parallel.y, same ? "" : "\tDISTINTA");
+                }
+            }
+        }
+        System.out.printf("%d de %d posiciones con la misma jugada%n", total - wrong, total);
+        if (wrong > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Posición de prueba: fichas colocadas al azar.
+     * @param size   El tamaño del tablero.
+     * @param stones El número de fichas.
+     * @param r      El generador de números aleatorios.
+     * @return       El estado del juego a buscar.
+     */
+    static HexGameStatus position(int size, int stones, Random r) {
+        HexGameStatus s = new HexGameStatus(size);
+        for (int i = 0; i < stones; ++i) {
+            int x, y;
+            do {
+                x = r.nextInt(size);
+                y = r.nextInt(size);
+            } while (s.getPos(x, y) != 0);
+            s.placeStone(new Point(x, y));
+        }
+        return s;
+    }
+
+    /**
+     * Busca una posición a profundidad fija.
+     * @param s           El estado del juego.
+     * @param depth       La profundidad.
+     * @param parallelism Hilos de {@link PathOfMinMax#setForkJoin(int)}, o {@code 0} para
+     *                    la búsqueda secuencial.
+     * @return            La jugada escogida.
+     */
+    private static Point search(HexGameStatus s, int depth, int parallelism) {
+        PathOfMinMax player = new PathOfMinMax(parallelism > 0 ? "YBW" : "Secuencial", depth, 0);
+        player.setForkJoin(parallelism);
+        try {
+            return player.move(new HexGameStatus(s)).getPoint();
+        } finally {
+            player.setForkJoin(0);
+        }
+    }
+}
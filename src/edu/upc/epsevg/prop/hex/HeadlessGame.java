@@ -4,6 +4,8 @@ package edu.upc.epsevg.prop.hex;
 
 import edu.upc.epsevg.prop.hex.players.H_E_X_Player;
 import edu.upc.epsevg.prop.hex.players.HumanPlayer;
+import edu.upc.epsevg.prop.hex.players.PathOfMCTS;
+import edu.upc.epsevg.prop.hex.players.PathOfMinMax;
 import edu.upc.epsevg.prop.hex.players.RandomPlayer;
 import java.lang.ref.WeakReference;
 
@@ -27,6 +29,10 @@ public class HeadlessGame {
     
     public static void main(String[] args) {
 
+        if (args.length > 0 && args[0].equals("mcts")) {
+            mctsMatch();
+            return;
+        }
 
         IPlayer player1 = new RandomPlayer("Paco");
         IPlayer player2 = new H_E_X_Player(2/*GB*/);
@@ -37,6 +43,19 @@ public class HeadlessGame {
 
     }
 
+    /**
+     * MCTS contra alpha-beta en 11x11 (o 13x13 cambiando el tamaño). Se lanza con el
+     * argumento {@code mcts}.
+     */
+    private static void mctsMatch() {
+        IPlayer player1 = new PathOfMCTS("PathOfMCTS", Runtime.getRuntime().availableProcessors());
+        IPlayer player2 = new PathOfMinMax("PathOfMinMax");
+
+        HeadlessGame game = new HeadlessGame(player1, player2, 11, 5/*s timeout*/, 10/*games*/);
+        GameResult gr = game.start();
+        System.out.println(gr);
+    }
+
     //=====================================================================================0
     public HeadlessGame(IPlayer p1, IPlayer p2, int size, int timeout, int gameCount) {
         this.size = size;
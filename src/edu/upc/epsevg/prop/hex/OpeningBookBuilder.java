@@ -0,0 +1,117 @@
+package edu.upc.epsevg.prop.hex;
+
+import edu.upc.epsevg.prop.hex.players.OpeningBook;
+import edu.upc.epsevg.prop.hex.players.PathOfMinMax;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Generador offline de libros de aperturas ({@link OpeningBook}).
+ * <p>
+ * Recorre el árbol de aperturas desde el tablero vacío para los dos papeles del libro:
+ * cuando mueve el jugador del libro se busca la mejor jugada con {@link PathOfMinMax} y
+ * solo se sigue por ella; cuando mueve el rival se siguen todas sus respuestas. Las
+ * posiciones simétricas de otras ya visitadas se saltan. Si el fichero ya existe, el libro
+ * se amplía y las posiciones que ya tenía no se vuelven a buscar.
+ * <p>
+ * Uso: {@code OpeningBookBuilder fichero [tamaños] [niveles] [ms]}, por ejemplo
+ * {@code OpeningBookBuilder hex.book 7,9,11 3 5000}: tableros de 7, 9 y 11, las tres
+ * primeras jugadas de la partida y 5 segundos de búsqueda por posición.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class OpeningBookBuilder {
+    private final OpeningBook.Writer writer = new OpeningBook.Writer();
+    private final Set<Long> visited = new HashSet<>();
+    private final PathOfMinMax player;
+    private final int plies;
+    private int searched;
+
+    /**
+     * Constructor de la clase {@link OpeningBookBuilder}.
+     * @param plies  Número de jugadas desde el tablero vacío que cubre el libro.
+     * @param millis Tiempo de búsqueda por posición en milisegundos.
+     */
+    public OpeningBookBuilder(int plies, long millis) {
+        this.plies  = plies;
+        this.player = new PathOfMinMax("OpeningBook");
+        this.player.setTimeLimit(millis);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: OpeningBookBuilder fichero [tamaños] [niveles] [ms]");
+            return;
+        }
+        Path file    = Paths.get(args[0]);
+        String sizes = args.length > 1 ? args[1] : "11";
+        int plies    = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        long millis  = args.length > 3 ? Long.parseLong(args[3]) : 5000;
+
+        OpeningBookBuilder builder = new OpeningBookBuilder(plies, millis);
+        if (Files.exists(file)) {
+            builder.writer.addAll(OpeningBook.open(file));
+        }
+        for (String s : sizes.split(",")) {
+            builder.build(Integer.parseInt(s.trim()));
+        }
+        builder.writer.write(file);
+        System.out.printf("%d posiciones buscadas, %d en el libro%n", builder.searched, builder.writer.size());
+    }
+
+    /**
+     * Añade al libro las aperturas de un tamaño de tablero.
+     * @param size El tamaño del tablero.
+     */
+    public void build(int size) {
+        HexGameStatus empty = new HexGameStatus(size);
+        visited.clear();
+        expand(empty, 0, PlayerType.PLAYER1);
+        visited.clear();
+        expand(empty, 0, PlayerType.PLAYER2);
+    }
+
+    /**
+     * Recorre el árbol de aperturas de un jugador del libro.
+     * @param s     La posición.
+     * @param ply   Número de jugadas desde el tablero vacío.
+     * @param owner El jugador que usa el libro.
+     */
+    private void expand(HexGameStatus s, int ply, PlayerType owner) {
+        if (ply >= plies || s.isGameOver()) {
+            return;
+        }
+        if (!visited.add(OpeningBook.key(s, OpeningBook.canonical(s)))) {
+            return;
+        }
+        int size = s.getSize();
+        if (s.getCurrentPlayer() == owner) {
+            Point move = writer.move(s);
+            if (move == null) {
+                move = player.move(new HexGameStatus(s)).getPoint();
+                writer.add(s, move);
+                ++searched;
+            }
+            HexGameStatus next = new HexGameStatus(s);
+            next.placeStone(move);
+            expand(next, ply + 1, owner);
+        } else {
+            for (int x = 0; x < size; ++x) {
+                for (int y = 0; y < size; ++y) {
+                    if (s.getPos(x, y) == 0) {
+                        HexGameStatus next = new HexGameStatus(s);
+                        next.placeStone(new Point(x, y));
+                        expand(next, ply + 1, owner);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package edu.upc.epsevg.prop.hex;
+
+import edu.upc.epsevg.prop.hex.players.PathOfMinMax;
+
+import java.awt.Point;
+
+/**
+ * Banco de pruebas de rendimiento de {@link PathOfMinMax}.
+ * <p>
+ * Busca la misma posición con iterative deepening hasta una profundidad fija usando de
+ * 1 hasta N hilos y muestra el tiempo hasta alcanzar la profundidad, los nodos explorados
+ * y los nodos por segundo de cada configuración.
+ * <p>
+ * Uso: {@code SearchBenchmark [tamaño] [profundidad] [hilos]}.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class SearchBenchmark {
+
+    public static void main(String[] args) {
+        int size    = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        int depth   = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("Tablero %dx%d, profundidad %d%n", size, size, depth);
+        System.out.println("hilos\tms\tnodos\tnodos/s\tjugada");
+        for (int n = 1; n <= threads; n *= 2) {
+            run(size, depth, n);
+            if (n < threads && n * 2 > threads) {
+                run(size, depth, threads);
+            }
+        }
+    }
+
+    /**
+     * Posición de prueba: dos fichas en el centro del tablero.
+     * @param size El tamaño del tablero.
+     * @return     El estado del juego a buscar.
+     */
+    static HexGameStatus position(int size) {
+        HexGameStatus s = new HexGameStatus(size);
+        s.placeStone(new Point(size / 2, size / 2));
+        s.placeStone(new Point(size / 2 - 1, size / 2 + 1));
+        return s;
+    }
+
+    private static void run(int size, int depth, int threads) {
+        PathOfMinMax player = new PathOfMinMax("Benchmark", depth);
+        player.setIterative(true);
+        player.setThreads(threads);
+
+        long t0 = System.nanoTime();
+        PlayerMove m = player.move(position(size));
+        long ms = Math.max(1, (System.nanoTime() - t0) / 1000000);
+        long nodes = m.getNumerOfNodesExplored();
+        Point p = m.getPoint();
+        System.out.printf("%d\t%d\t%d\t%d\t[%d, %d]%n", threads, ms, nodes, nodes * 1000 / ms, p.x, p.y);
+        player.setThreads(1);
+    }
+}
@@ -0,0 +1,338 @@
+package edu.upc.epsevg.prop.hex;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tablero mutable para la búsqueda, con {@link #placeStone(int)} y {@link #undo()}.
+ * <p>
+ * Se construye una vez a partir del {@link HexGameStatus} que recibe el jugador y después
+ * la búsqueda coloca y retira fichas sobre el mismo objeto, en lugar de copiar el
+ * {@link HexGameStatus} en cada nodo. Mantiene de forma incremental el hash de Zobrist
+ * y el jugador que mueve.
+ * <p>
+ * Las fichas se guardan en un {@link BitBoard}, de modo que contar casillas vacías y
+ * generar movimientos son operaciones por palabra. La victoria se detecta con un
+ * {@link UnionFind} que se actualiza al colocar cada ficha y se deshace con {@link #undo()}.
+ * <p>
+ * Las casillas se representan como índice {@code x * size + y}. Los {@link Point} y las
+ * listas de vecinos que retorna están precalculados y no se deben modificar.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class SearchBoard {
+    /**
+     * Recibe los cambios del tablero para mantener estructuras incrementales.
+     */
+    public interface Listener {
+        /**
+         * Se llama después de colocar una ficha.
+         * @param board El tablero, que ya tiene la ficha.
+         * @param cell  La casilla como índice {@code x * size + y}.
+         * @param color Color de la ficha ({@code 1} o {@code -1}).
+         */
+        void placed(SearchBoard board, int cell, int color);
+
+        /**
+         * Se llama después de retirar una ficha con {@link SearchBoard#undo()}.
+         * @param board El tablero, que ya no tiene la ficha.
+         * @param cell  La casilla como índice {@code x * size + y}.
+         * @param color Color de la ficha retirada.
+         */
+        void removed(SearchBoard board, int cell, int color);
+    }
+
+    private final int size;
+    private final BitBoard bits;
+    private final UnionFind uf;
+    private final int[] played;
+    private final byte[] prevWinner;
+    private int ply;
+    private long hash;
+    private int toMove;
+    private int winner;
+    private Listener listener;
+
+    private final Point[] points;
+    private final int[][] neigh;
+    private final List<List<Point>> neighPoints;
+    private final long[][] keys;
+
+    /**
+     * Construye el tablero de búsqueda a partir del estado del juego.
+     * @param hgs El estado del juego.
+     */
+    public SearchBoard(HexGameStatus hgs) {
+        this.size = hgs.getSize();
+        int n = size * size;
+        this.bits       = new BitBoard(hgs);
+        this.uf         = new UnionFind(bits);
+        this.played     = new int[n];
+        this.prevWinner = new byte[n];
+        this.points     = new Point[n];
+        this.neigh      = Utils.neighbours(size);
+        this.keys       = new long[2][n];
+        List<List<Point>> np = new ArrayList<>(n);
+
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                points[x * size + y] = new Point(x, y);
+            }
+        }
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                int c = x * size + y;
+                List<Point> list = new ArrayList<>(neigh[c].length);
+                for (int nb : neigh[c]) {
+                    list.add(points[nb]);
+                }
+                np.add(Collections.unmodifiableList(list));
+                keys[0][c] = Zobrist.key(x, y, 1);
+                keys[1][c] = Zobrist.key(x, y, -1);
+            }
+        }
+        this.neighPoints = np;
+
+        for (int c = 0; c < n; ++c) {
+            int color = bits.get(c);
+            if (color != 0)
+                hash ^= keys[color == 1 ? 0 : 1][c];
+        }
+        this.toMove = PlayerType.getColor(hgs.getCurrentPlayer());
+        this.winner = hgs.isGameOver() ? PlayerType.getColor(hgs.GetWinner()) : 0;
+    }
+
+    /**
+     * Constructor de copia. Las tablas precalculadas se comparten con {@code other}; el
+     * {@link Listener} no se copia.
+     * @param other El tablero a copiar.
+     */
+    public SearchBoard(SearchBoard other) {
+        this.size        = other.size;
+        this.bits        = new BitBoard(other.bits);
+        this.uf          = new UnionFind(other.uf);
+        this.played      = other.played.clone();
+        this.prevWinner  = other.prevWinner.clone();
+        this.ply         = other.ply;
+        this.hash        = other.hash;
+        this.toMove      = other.toMove;
+        this.winner      = other.winner;
+        this.points      = other.points;
+        this.neigh       = other.neigh;
+        this.neighPoints = other.neighPoints;
+        this.keys        = other.keys;
+    }
+
+    /**
+     * Fija el objeto que recibe las fichas colocadas y retiradas.
+     * @param listener El receptor, o {@code null} para no avisar a nadie.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Retorna el tamaño del tablero.
+     * @return El tamaño del tablero.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Retorna el color de una casilla.
+     * @param x Coordenada x.
+     * @param y Coordenada y.
+     * @return  {@code 1}, {@code -1} o {@code 0} si está vacía.
+     */
+    public int getPos(int x, int y) {
+        return bits.get(x * size + y);
+    }
+
+    /**
+     * Retorna el color de una casilla.
+     * @param p La casilla.
+     * @return  {@code 1}, {@code -1} o {@code 0} si está vacía.
+     */
+    public int getPos(Point p) {
+        return bits.get(p.x * size + p.y);
+    }
+
+    /**
+     * Retorna el color de una casilla.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     {@code 1}, {@code -1} o {@code 0} si está vacía.
+     */
+    public int getPos(int cell) {
+        return bits.get(cell);
+    }
+
+    /**
+     * Retorna el {@link Point} precalculado de una casilla.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     El punto de la casilla. No se debe modificar.
+     */
+    public Point point(int cell) {
+        return points[cell];
+    }
+
+    /**
+     * Retorna los vecinos de una casilla, igual que {@link HexGameStatus#getNeigh(Point)}
+     * pero sin crear una lista nueva.
+     * @param p La casilla.
+     * @return  Lista no modificable con los vecinos.
+     */
+    public List<Point> getNeigh(Point p) {
+        return neighPoints.get(p.x * size + p.y);
+    }
+
+    /**
+     * Retorna los vecinos de una casilla como índices.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     Los índices de los vecinos. No se debe modificar.
+     */
+    public int[] neighbours(int cell) {
+        return neigh[cell];
+    }
+
+    /**
+     * Retorna el jugador que mueve.
+     * @return El jugador que mueve.
+     */
+    public PlayerType getCurrentPlayer() {
+        return toMove == 1 ? PlayerType.PLAYER1 : PlayerType.PLAYER2;
+    }
+
+    /**
+     * Retorna el color del jugador que mueve.
+     * @return {@code 1} o {@code -1}.
+     */
+    public int getCurrentColor() {
+        return toMove;
+    }
+
+    /**
+     * Consulta si la partida ha acabado.
+     * @return {@code true} si algún jugador ha unido sus lados.
+     */
+    public boolean isGameOver() {
+        return winner != 0;
+    }
+
+    /**
+     * Retorna el ganador de la partida.
+     * @return El ganador, o {@code null} si la partida no ha acabado.
+     */
+    public PlayerType getWinner() {
+        if (winner == 0)
+            return null;
+        return winner == 1 ? PlayerType.PLAYER1 : PlayerType.PLAYER2;
+    }
+
+    /**
+     * Retorna el número de casillas vacías.
+     * @return El número de casillas vacías.
+     */
+    public int countEmptyCells() {
+        return bits.countEmpty();
+    }
+
+    /**
+     * Retorna el {@link BitBoard} con las fichas, para consultas con máscaras.
+     * @return El bitboard del tablero. No se debe modificar.
+     */
+    public BitBoard bits() {
+        return bits;
+    }
+
+    /**
+     * Retorna el hash de Zobrist de la posición, igual al de {@link Zobrist#hash(HexGameStatus)}.
+     * @return El hash de la posición.
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * Escribe en {@code moves} las casillas vacías, en el mismo orden que
+     * {@link HexGameStatus#getMoves()}.
+     * @param moves Array de al menos {@link #countEmptyCells()} posiciones.
+     * @return      El número de movimientos escritos.
+     */
+    public int getMoves(int[] moves) {
+        return bits.emptyCells(moves);
+    }
+
+    /**
+     * Consulta si una ficha de {@code color} en {@code cell} uniría los lados de su jugador.
+     * @param cell  La casilla como índice {@code x * size + y}, que ha de estar vacía.
+     * @param color Color de la ficha ({@code 1} o {@code -1}).
+     * @return      {@code true} si la ficha daría la victoria.
+     */
+    public boolean isWinningMove(int cell, int color) {
+        return uf.connects(cell, color, bits);
+    }
+
+    /**
+     * Coloca una ficha del jugador que mueve.
+     * @param p La casilla, que ha de estar vacía.
+     */
+    public void placeStone(Point p) {
+        placeStone(p.x * size + p.y);
+    }
+
+    /**
+     * Coloca una ficha del jugador que mueve y pasa el turno.
+     * <p>
+     * La ficha se añade al {@link UnionFind}, que dice si da la victoria sin recorrer el
+     * tablero.
+     * @param cell La casilla como índice {@code x * size + y}, que ha de estar vacía.
+     */
+    public void placeStone(int cell) {
+        bits.set(cell, toMove);
+        hash ^= keys[toMove == 1 ? 0 : 1][cell];
+        prevWinner[ply] = (byte)winner;
+        played[ply++] = cell;
+        uf.place(cell, toMove, bits);
+        if (winner == 0 && uf.connected(toMove))
+            winner = toMove;
+        toMove = -toMove;
+        if (listener != null)
+            listener.placed(this, cell, -toMove);
+    }
+
+    /**
+     * Coloca una ficha de {@code color} sin pasar el turno.
+     * <p>
+     * Sirve para rellenar casillas muertas o capturadas antes de empezar la búsqueda (ver
+     * {@link edu.upc.epsevg.prop.hex.heuristic.InferiorCells}). La ficha no se puede
+     * deshacer con {@link #undo()} y no se avisa al {@link Listener}, así que solo se puede
+     * llamar antes de colocar fichas con {@link #placeStone(int)}.
+     * @param cell  La casilla como índice {@code x * size + y}, que ha de estar vacía.
+     * @param color Color de la ficha ({@code 1} o {@code -1}).
+     */
+    public void fill(int cell, int color) {
+        bits.set(cell, color);
+        hash ^= keys[color == 1 ? 0 : 1][cell];
+        uf.place(cell, color, bits);
+        if (winner == 0 && uf.connected(color))
+            winner = color;
+    }
+
+    /**
+     * Deshace la última ficha colocada con {@link #placeStone(int)}.
+     */
+    public void undo() {
+        int cell = played[--ply];
+        toMove = -toMove;
+        winner = prevWinner[ply];
+        hash ^= keys[toMove == 1 ? 0 : 1][cell];
+        bits.clear(cell);
+        uf.undo();
+        if (listener != null)
+            listener.removed(this, cell, toMove);
+    }
+}
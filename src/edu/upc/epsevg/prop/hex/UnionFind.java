@@ -0,0 +1,195 @@
+package edu.upc.epsevg.prop.hex;
+
+/**
+ * Conjuntos disjuntos incrementales sobre las casillas del tablero para saber en tiempo
+ * casi constante si un jugador ha unido sus lados.
+ * <p>
+ * Además de las {@code size * size} casillas hay cuatro nodos virtuales, uno por lado:
+ * el primero y el último de x para el jugador 1 y el primero y el último de y para el
+ * jugador 2. Al colocar una ficha se une con los vecinos de su color y con los lados que
+ * toca; el jugador ha ganado cuando sus dos lados están en el mismo conjunto.
+ * <p>
+ * Se usa unión por rango sin compresión de caminos, de modo que cada unión cambia como
+ * mucho un padre y un rango. Estos cambios se apuntan en un registro y {@link #undo()}
+ * los deshace en orden inverso.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class UnionFind {
+    private static final int RANK_FLAG = 1 << 30;
+
+    private final int size;
+    private final int cells;
+    private final int[] parent;
+    private final int[] rank;
+    private final int[][] neigh;
+
+    private final int[] log;
+    private int logTop;
+    private final int[] marks;
+    private int moves;
+
+    /**
+     * Construye la estructura para un tablero vacío.
+     * @param size El tamaño del tablero.
+     */
+    public UnionFind(int size) {
+        this.size   = size;
+        this.cells  = size * size;
+        this.parent = new int[cells + 4];
+        this.rank   = new int[cells + 4];
+        // Cada ficha hace como mucho 8 uniones (6 vecinos y 2 lados) de 2 cambios cada una
+        this.log    = new int[cells * 16];
+        this.marks  = new int[cells + 1];
+        this.neigh  = Utils.neighbours(size);
+        reset();
+    }
+
+    /**
+     * Construye la estructura con las fichas de un tablero.
+     * @param board El tablero.
+     */
+    public UnionFind(BitBoard board) {
+        this(board.getSize());
+        for (int c = 0; c < cells; ++c) {
+            int color = board.get(c);
+            if (color != 0)
+                place(c, color, board);
+        }
+        this.logTop = 0;
+        this.moves  = 0;
+    }
+
+    /**
+     * Constructor de copia.
+     * @param other La estructura a copiar.
+     */
+    public UnionFind(UnionFind other) {
+        this(other.size);
+        copyFrom(other);
+    }
+
+    /**
+     * Vacía la estructura: cada nodo forma su propio conjunto.
+     */
+    public void reset() {
+        for (int i = 0; i < parent.length; ++i) {
+            parent[i] = i;
+            rank[i] = 0;
+        }
+        logTop = 0;
+        moves  = 0;
+    }
+
+    /**
+     * Copia los conjuntos y el registro de cambios de otra estructura del mismo tamaño.
+     * @param other La estructura a copiar.
+     */
+    public void copyFrom(UnionFind other) {
+        System.arraycopy(other.parent, 0, parent, 0, parent.length);
+        System.arraycopy(other.rank,   0, rank,   0, rank.length);
+        System.arraycopy(other.log,    0, log,    0, other.logTop);
+        System.arraycopy(other.marks,  0, marks,  0, other.moves);
+        logTop = other.logTop;
+        moves  = other.moves;
+    }
+
+    /**
+     * Retorna el representante del conjunto de un nodo.
+     * @param a El nodo.
+     * @return  El representante.
+     */
+    public int find(int a) {
+        while (parent[a] != a)
+            a = parent[a];
+        return a;
+    }
+
+    /**
+     * Añade una ficha recién colocada en {@code board}.
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @param color Color de la ficha ({@code 1} o {@code -1}).
+     * @param board El tablero, que ya ha de tener la ficha.
+     */
+    public void place(int cell, int color, BitBoard board) {
+        marks[moves++] = logTop;
+        for (int nb : neigh[cell]) {
+            if (board.get(nb) == color)
+                union(cell, nb);
+        }
+        int coord = color == 1 ? cell / size : cell % size;
+        int side  = color == 1 ? cells : cells + 2;
+        if (coord == 0)
+            union(cell, side);
+        if (coord == size - 1)
+            union(cell, side + 1);
+    }
+
+    /**
+     * Deshace la última ficha añadida con {@link #place(int, int, BitBoard)}.
+     */
+    public void undo() {
+        int mark = marks[--moves];
+        while (logTop > mark) {
+            int e = log[--logTop];
+            if ((e & RANK_FLAG) != 0)
+                rank[e & ~RANK_FLAG]--;
+            else
+                parent[e] = e;
+        }
+    }
+
+    /**
+     * Consulta si un jugador ha unido sus dos lados.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @return      {@code true} si el jugador ha ganado.
+     */
+    public boolean connected(int color) {
+        int side = color == 1 ? cells : cells + 2;
+        return find(side) == find(side + 1);
+    }
+
+    /**
+     * Consulta si una ficha de {@code color} en una casilla vacía uniría los dos lados de
+     * su jugador, sin colocarla.
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @param color Color de la ficha ({@code 1} o {@code -1}).
+     * @param board El tablero.
+     * @return      {@code true} si la ficha daría la victoria.
+     */
+    public boolean connects(int cell, int color, BitBoard board) {
+        int side  = color == 1 ? cells : cells + 2;
+        int first = find(side);
+        int last  = find(side + 1);
+        int coord = color == 1 ? cell / size : cell % size;
+        boolean toFirst = coord == 0;
+        boolean toLast  = coord == size - 1;
+        for (int nb : neigh[cell]) {
+            if (board.get(nb) == color) {
+                int r = find(nb);
+                toFirst |= r == first;
+                toLast  |= r == last;
+            }
+        }
+        return toFirst && toLast;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra == rb)
+            return;
+        if (rank[ra] < rank[rb]) {
+            int tmp = ra;
+            ra = rb;
+            rb = tmp;
+        }
+        parent[rb] = ra;
+        log[logTop++] = rb;
+        if (rank[ra] == rank[rb]) {
+            rank[ra]++;
+            log[logTop++] = ra | RANK_FLAG;
+        }
+    }
+}
@@ -6,6 +6,7 @@ package edu.upc.epsevg.prop.hex;
 
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -13,6 +14,61 @@ import java.util.List;
  * @author kmalhal
  */
 public class Utils {
+    private static final int[][][] NEIGHBOURS = new int[BitBoard.MAX_SIZE + 1][][];
+
+    /**
+     * Retorna la tabla de vecinos de un tamaño de tablero, que se calcula una sola vez.
+     * <p>
+     * Las casillas son índices {@code x * size + y} y los vecinos de {@code (x, y)} van en
+     * el mismo orden que {@link HexGameStatus#getNeigh(Point)}: {@code (x, y-1)},
+     * {@code (x+1, y-1)}, {@code (x-1, y)}, {@code (x+1, y)}, {@code (x-1, y+1)} y
+     * {@code (x, y+1)}. Las casillas del borde tienen menos de seis.
+     * @param size El tamaño del tablero.
+     * @return     Para cada casilla, los índices de sus vecinos. No se debe modificar.
+     */
+    static public synchronized int[][] neighbours(int size) {
+        if (NEIGHBOURS[size] == null) {
+            int[][] neigh = new int[size * size][];
+            int[][] dirs = {{0, -1}, {1, -1}, {-1, 0}, {1, 0}, {-1, 1}, {0, 1}};
+            for (int x = 0; x < size; ++x) {
+                for (int y = 0; y < size; ++y) {
+                    int[] tmp = new int[6];
+                    int k = 0;
+                    for (int[] d : dirs) {
+                        int nx = x + d[0], ny = y + d[1];
+                        if (nx >= 0 && ny >= 0 && nx < size && ny < size)
+                            tmp[k++] = nx * size + ny;
+                    }
+                    neigh[x * size + y] = Arrays.copyOf(tmp, k);
+                }
+            }
+            NEIGHBOURS[size] = neigh;
+        }
+        return NEIGHBOURS[size];
+    }
+
+    /**
+     * Retorna el índice de una casilla.
+     * @param x    Coordenada x.
+     * @param y    Coordenada y.
+     * @param size El tamaño del tablero.
+     * @return     El índice {@code x * size + y}.
+     */
+    static public int cell(int x, int y, int size) {
+        return x * size + y;
+    }
+
+    /**
+     * Convierte un índice de casilla en un {@link Point} nuevo. Solo se debería usar para
+     * construir el {@link PlayerMove} de la jugada.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @param size El tamaño del tablero.
+     * @return     El punto de la casilla.
+     */
+    static public Point toPoint(int cell, int size) {
+        return new Point(cell / size, cell % size);
+    }
+
     /**
      * Retorna una copia de array.
      * @param array Array fuente
@@ -91,6 +147,28 @@ public class Utils {
         return false;
     }
 
+    /**
+     * Igual que {@link #isSourcePoint(Point, PlayerType)} con el índice de la casilla.
+     * @param cell   La casilla como índice {@code x * size + y}.
+     * @param player El jugador que hace la consulta.
+     * @param size   El tamaño del tablero.
+     * @return       {@code true} si la casilla está en el primer lado del jugador.
+     */
+    static public boolean isSourceCell(int cell, PlayerType player, int size) {
+        return (player == PlayerType.PLAYER2 ? cell % size : cell / size) == 0;
+    }
+
+    /**
+     * Igual que {@link #isGoalPoint(Point, PlayerType, int)} con el índice de la casilla.
+     * @param cell   La casilla como índice {@code x * size + y}.
+     * @param player El jugador que hace la consulta.
+     * @param size   El tamaño del tablero.
+     * @return       {@code true} si la casilla está en el último lado del jugador.
+     */
+    static public boolean isGoalCell(int cell, PlayerType player, int size) {
+        return (player == PlayerType.PLAYER2 ? cell % size : cell / size) == size - 1;
+    }
+
     /**
      * Consulta cuales puntos en el tablero están libres para jugar.
      * @param board El tablero del juego.
@@ -107,6 +185,24 @@ public class Utils {
         return availables;
     }
     
+    /**
+     * Igual que {@link #getAvailableCells(HexGameStatus)} pero escribe los índices de las
+     * casillas libres en {@code out}, sin crear objetos.
+     * @param board El tablero del juego.
+     * @param out   Array con espacio para todas las casillas.
+     * @return      El número de casillas escritas.
+     */
+    static public int getAvailableCells(HexGameStatus board, int[] out) {
+        int n = 0;
+        int size = board.getSize();
+        for (int i = 0; i < size; i++)
+            for (int j = 0; j < size; j++) {
+                if (board.getPos(i, j) == 0)
+                    out[n++] = i * size + j;
+            }
+        return n;
+    }
+
     /**
      * Método para calcular el número de casillas vacías en el tablero actual.
      *
@@ -144,6 +240,23 @@ public class Utils {
         return ret;
     }
     
+    /**
+     * Igual que {@link #getLowestCostFromNeighbors(HexGameStatus, Point, int[][])} con
+     * índices de casilla y un array de distancias plano.
+     * @param board El tablero de búsqueda.
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @param dist  Las distancias, indexadas por casilla.
+     * @return      La menor distancia de una casilla a sus vecinos.
+     */
+    static public int getLowestCostFromNeighbors(SearchBoard board, int cell, int[] dist) {
+        int ret = Integer.MAX_VALUE;
+        for (int neigh : board.neighbours(cell)) {
+            if (dist[neigh] < ret)
+                ret = dist[neigh];
+        }
+        return ret;
+    }
+
     /**
      * Devuelve la cantidad de enemigos vecinos de un punto.
      * @param board  El tablero del juego.
@@ -163,6 +276,18 @@ public class Utils {
         return ret;
     }
 
+    /**
+     * Igual que {@link #countEnemyNeighbors(HexGameStatus, Point, PlayerType)} con el
+     * índice de la casilla.
+     * @param board  El tablero de búsqueda.
+     * @param cell   La casilla como índice {@code x * size + y}.
+     * @param player El jugador que hace la consulta.
+     * @return       El número de enemigos alrededor de la casilla.
+     */
+    static public int countEnemyNeighbors(SearchBoard board, int cell, PlayerType player) {
+        return board.bits().countNeighbours(cell, -PlayerType.getColor(player));
+    }
+
     /**
      * Retorna el coste de una lista de {@link Point}.
      * <p>
@@ -184,6 +309,22 @@ public class Utils {
         return ret;
     }
 
+    /**
+     * Igual que {@link #getCostOfPath(List, int[][])} con un camino de índices de casilla
+     * y un array de distancias plano.
+     * @param path   Las casillas del camino.
+     * @param length El número de casillas de {@code path} que se usan.
+     * @param dist   Las distancias, indexadas por casilla.
+     * @return       La suma de las distancias de las casillas del camino.
+     */
+    static public int getCostOfPath(int[] path, int length, int[] dist) {
+        int ret = 0;
+        for (int i = 0; i < length; ++i) {
+            ret += dist[path[i]];
+        }
+        return ret;
+    }
+
     /**
      * Solo para própositos de debugging: Imprime una lista de puntos.
      * @param list Una lista de tipo {@link List<Point>}.
@@ -0,0 +1,66 @@
+package edu.upc.epsevg.prop.hex;
+
+import java.util.Random;
+
+/**
+ * Claves de Zobrist para identificar posiciones del tablero de Hex con un único {@code long}.
+ * <p>
+ * El hash de una posición es el XOR de las claves de todas las fichas colocadas, de modo que
+ * colocar (o quitar) una ficha solo requiere un XOR con {@link #key(int, int, int)}. No hace
+ * falta codificar el turno: en Hex queda determinado por el número de fichas del tablero.
+ * <p>
+ * La semilla es fija para que el mismo tablero produzca siempre el mismo hash entre ejecuciones.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class Zobrist {
+    /**
+     * Tamaño máximo de tablero soportado.
+     */
+    public static final int MAX_SIZE = 19;
+
+    private static final long SEED = 0x48455850524F50L;
+    private static final long[][] KEYS = new long[2][MAX_SIZE * MAX_SIZE];
+
+    static {
+        Random rand = new Random(SEED);
+        for (int c = 0; c < 2; ++c) {
+            for (int i = 0; i < MAX_SIZE * MAX_SIZE; ++i) {
+                KEYS[c][i] = rand.nextLong();
+            }
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * Retorna la clave de una ficha de un color en una posición.
+     * @param x     Coordenada x de la ficha.
+     * @param y     Coordenada y de la ficha.
+     * @param color Color de la ficha (1 o -1, como en {@link HexGameStatus#getPos(int, int)}).
+     * @return      La clave a aplicar con un XOR sobre el hash.
+     */
+    public static long key(int x, int y, int color) {
+        return KEYS[color == 1 ? 0 : 1][x * MAX_SIZE + y];
+    }
+
+    /**
+     * Calcula desde cero el hash de un tablero.
+     * @param board El tablero del juego.
+     * @return      El hash de Zobrist de la posición.
+     */
+    public static long hash(HexGameStatus board) {
+        int size = board.getSize();
+        long h = 0;
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                int color = board.getPos(x, y);
+                if (color != 0)
+                    h ^= key(x, y, color);
+            }
+        }
+        return h;
+    }
+}
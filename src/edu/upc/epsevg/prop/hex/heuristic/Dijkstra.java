@@ -7,6 +7,7 @@ package edu.upc.epsevg.prop.hex.heuristic;
 import edu.upc.epsevg.prop.hex.*;
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -15,15 +16,52 @@ import java.util.List;
  * <p>
  * Esta clase tiene la intención de ser utilizada por otros como utilitario en la búsqueda 
  * de las mejores jugadas posibles en el juego Hex.
+ * <p>
+ * Cada instancia es un espacio de trabajo con todos sus arrays reservados en el
+ * constructor, de modo que las llamadas con índices de casilla no crean ningún objeto.
+ * En lugar de reiniciar las distancias en cada búsqueda, cada casilla guarda una marca con
+ * la época en la que se alcanzó o se cerró, y las distancias con marcas de épocas
+ * anteriores se consideran infinitas.
+ * Las instancias no son seguras entre hilos: en una búsqueda paralela cada hilo ha de
+ * tener la suya (por ejemplo con un {@link ThreadLocal}).
  *
  * @author kmalhal
  * @author jmoreno
  */
 public class Dijkstra {
+    /**
+     * Coste de pasar por una casilla propia, vacía y enemiga.
+     */
+    private static final int OWN_COST   = 1;
+    private static final int EMPTY_COST = 5;
+    private static final int ENEMY_COST = 100000;
+    /**
+     * Coste añadido de usar una conexión virtual (ver {@link VirtualConnections}).
+     */
+    public static final int VIRTUAL_COST = 1;
+
     private int boardSize;
 
-    private List<Point> up, down, left, right;
-    int[][] distanceMap;
+    // Distancias, válidas solo si la marca de la casilla es de la búsqueda actual:
+    // reached si se ha alcanzado y reached + 1 si ya está cerrada
+    private int[] dist;
+    private int[] mark;
+    private int reached;
+
+    // Cola de prioridad por cubetas (ver dijkstra)
+    private int[] head, nextHead;
+    private int[] entryCell, entryNext;
+    private int entries;
+    private int topBucket;
+
+    // Predecesor de cada casilla en el último árbol de caminos (ver dijkstra y edgeToEdge)
+    private int[] pred;
+    private int connectionCost;
+
+    // Camino de la última llamada con índices de casilla y su composición (ver dijkstra)
+    private int[] pathBuf;
+    private int pathLength;
+    private int pathOwn, pathEmpty, pathEnemy;
 
     /**
      * Constructor de la clase Dijkstra.
@@ -34,54 +72,72 @@ public class Dijkstra {
      */
     public Dijkstra(int boardSize) {
         this.boardSize = boardSize;
-        createGoalArray(this.boardSize);
+        int n = boardSize * boardSize;
+        // La casilla n es el destino virtual de las plantillas de borde (ver edgePaths)
+        this.dist      = new int[n + 1];
+        this.mark      = new int[n + 1];
+        this.head      = new int[EMPTY_COST * n + VIRTUAL_COST + 1];
+        this.nextHead  = new int[EMPTY_COST * n + VIRTUAL_COST + 1];
+        // Cada casilla se relaja como mucho una vez por vecino, compañero de puente y
+        // destino virtual, más las fuentes
+        this.entryCell = new int[14 * n + boardSize];
+        this.entryNext = new int[14 * n + boardSize];
+        this.pred      = new int[n + 1];
+        this.pathBuf   = new int[pathCapacity(boardSize)];
+        Arrays.fill(head, -1);
+        Arrays.fill(nextHead, -1);
+    }
+
+    /**
+     * Retorna el tamaño del tablero para el que se ha creado la instancia.
+     * @return El tamaño del tablero.
+     */
+    public int getBoardSize() {
+        return boardSize;
+    }
 
-        // System.out.println("Up list:");
-        // Utils.printListPoint(this.up);
-        // System.out.println("Down list:");
-        // Utils.printListPoint(this.down);
-        // System.out.println("Left list:");
-        // Utils.printListPoint(this.left);
-        // System.out.println("Right list:");
-        // Utils.printListPoint(this.right);
+    /**
+     * Retorna la distancia de una casilla en la última búsqueda. Es una vista de solo
+     * lectura de las distancias, sin copiarlas.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     La distancia, o {@link Integer#MAX_VALUE} si la búsqueda no llegó a ella.
+     */
+    public int getDistance(int cell) {
+        return mark[cell] >= reached ? dist[cell] : Integer.MAX_VALUE;
     }
 
     /**
-     * Construye 4 {@link ArrayList<Point>} que determinan las fuentes y los destinos.
-     * <p>
-     * Las listas resultantes son la primera fila, la última fila,
-     * la primera columna y la última columna del tablero.
-     * <p>
-     * Estas listas serán guardados en {@link up}, {@link down}, {@link left}, {@link right}.
-     * @param size El tamaño del tablero.
+     * Igual que {@link #getDistance(int)} con las coordenadas de la casilla.
+     * @param x Coordenada x.
+     * @param y Coordenada y.
+     * @return  La distancia, o {@link Integer#MAX_VALUE} si la búsqueda no llegó a ella.
      */
-    private void createGoalArray(int size) {
-        if (up instanceof ArrayList<?>)
-            return;
-        up    = new ArrayList<>();
-        down  = new ArrayList<>();
-        left  = new ArrayList<>();
-        right = new ArrayList<>();
-        for (int i = 0; i < size; ++i) {
-            up.add(   new Point(i, 0));
-            down.add( new Point(i, size - 1));
-            left.add( new Point(0, i));
-            right.add(new Point(size - 1, i));
-        }
+    public int getDistance(int x, int y) {
+        return getDistance(x * boardSize + y);
+    }
+
+    /**
+     * Retorna el número máximo de casillas de un camino.
+     * @param boardSize El tamaño del tablero.
+     * @return          El tamaño del array de {@link #getPath()}.
+     */
+    private static int pathCapacity(int boardSize) {
+        // Cada mitad del camino es una rama del árbol de predecesores
+        return 2 * boardSize * boardSize;
     }
 
     /**
      * Retorna el coste de una lista de {@link Point}.
      * <p>
-     * Consulta por la matriz cuadrada de distancias el coste y va sumando los 
-     * costes en las posiciones en la lista {@code list}
+     * Consulta con {@link #getDistance(int, int)} la distancia de cada posición de la
+     * lista {@code list} en la última búsqueda y va sumando los costes.
      * <p>
      * Se aconseja utilizar este método después de ejecutar {@link dijkstra} para 
      * saber su coste.
      * @param list Una {@link List<Point>} de todos los puntos a consultar.
      * @return     Retorna el coste de una lista de {@link Point}.
      * 
-     * @see Utils#getCostOfPath(List<Point>, int[][])
+     * @see #getCostOfPath(int[], int)
      * @see dijkstra
      */
     public int getCostOfPath(List<Point> list) {
@@ -89,217 +145,117 @@ public class Dijkstra {
         for (Point p: list) {
             int x = (int)p.getX();
             int y = (int)p.getY();
-            ret += this.distanceMap[x][y];
+            ret += getDistance(x, y);
         }
         // System.out.printf("Cost: %d\n", ret);
         return ret;
     }
 
     /**
-     * Determina el punto con menor coste en todo el tablero.
-     * @param board      El tablero del juego.
-     * @param enemyColor Color del enemigo.
-     * @param dist       Una matriz con las distancias desde la fuente. Las dimensiones de la matriz cuadrada es igual tamaño que el tablero.
-     * @param visited    Una matriz que determina si se ha visitado un cierto punto. Las dimensiones de la matriz cuadrada es igual tamaño que el tablero.
-     * @return           Un {@link Point} con el menor coste en todo el tablero.
-     * 
-     * @see dijkstra
+     * Igual que {@link #getCostOfPath(List)} con un camino de índices de casilla, como el
+     * que retorna {@link #getPath()}.
+     * @param path   Las casillas del camino.
+     * @param length El número de casillas de {@code path} que se usan.
+     * @return       Retorna el coste del camino.
      */
-    private Point minDistancePoint(HexGameStatus board, int enemyColor, int[][] dist, boolean[][] visited) {
-        int min = Integer.MAX_VALUE;
-        Point minPoint = new Point(0, 0);
-        for (int x = 0; x < boardSize; ++x) {
-            for (int y = 0; y < boardSize; ++y) {
-                if (visited[x][y] == false && dist[x][y] < min) {
-                    // board.getPos(x,y) != enemyColor) {
-                    // int color = board.getPos(x,y);
-                    // int playerColor = PlayerType.getColor(PlayerType.opposite(PlayerType.fromInt((byte)enemyColor)));
-                    // System.out.printf("Color: %s \n", color == enemyColor ? "ENEMY" : color == playerColor ? "PLAYER" : "EMPTY");
-                    // System.out.printf("New min distance [%d, %d]: %d\n", x, y, min);
-
-                    min = dist[x][y];
-                    minPoint = new Point(x, y);
-                }
-            }
+    public int getCostOfPath(int[] path, int length) {
+        int ret = 0;
+        for (int i = 0; i < length; ++i) {
+            ret += getDistance(path[i]);
         }
-        return minPoint;
+        return ret;
     }
 
     /**
-     * Obtiene un {@link Point} con la distancia más corta de todas fuentes (primera fila o columna).
-     * @param dist   Una matriz con las distancias desde la fuente. Las dimensiones de la matriz cuadrada es igual tamaño que el tablero.
+     * Obtiene la casilla con la distancia más corta de todas fuentes (primera fila o columna).
      * @param player El jugador que hace la consulta.
-     * @return       {@link Point} de menor distancia.
+     * @return       La casilla de menor distancia, o {@code -1} si no se llega a ninguna.
      * 
      * @see makePath
-     * @see makePath2
      */
-    private Point getLowestSource(int[][] dist, PlayerType player) {
-        ArrayList<Point> goal;
+    private int getLowestSource(PlayerType player) {
         int min = Integer.MAX_VALUE;
-        Point pMin = null;
-        if (player == PlayerType.PLAYER2) {
-            goal = new ArrayList<>(this.up.size());
-            for (Point p: this.up) {
-                goal.add((Point)p.clone());
-            }
-        } else {
-            goal = new ArrayList<>(this.left.size());
-            for (Point p: this.left) {
-                goal.add((Point)p.clone());
-            }
-        }
-
-        // Get the goal point with the lowest cost.
-        for (Point p: goal) {
-            int x = (int)p.getX();
-            int y = (int)p.getY();
-            if (dist[x][y] < min) {
-                min  = dist[x][y];
-                pMin = (Point)p.clone();
+        int cMin = -1;
+        for (int i = 0; i < boardSize; ++i) {
+            int c = player == PlayerType.PLAYER2 ? i * boardSize : i;
+            if (getDistance(c) < min) {
+                min  = getDistance(c);
+                cMin = c;
             }
         }
-        if (pMin == null) {
-            throw new NullPointerException("LowestSource");
-        }
-        // System.out.printf("Lowest goal point: [%d, %d]\n", (int)pMin.getX(), (int)pMin.getY());
-        return (Point)pMin.clone();
+        return cMin;
     }
 
     /**
-     * Obtiene un {@link Point} con la distancia más corta de todas las llegadas (última fila o columna).
-     * @param dist   Una matriz con las distancias desde la fuente. Las dimensiones de la matriz cuadrada es igual tamaño que el tablero.
+     * Obtiene la casilla con la distancia más corta de todas las llegadas (última fila o columna).
      * @param player El jugador que hace la consulta.
-     * @return       {@link Point} de menor distancia.
+     * @return       La casilla de menor distancia, o {@code -1} si no se llega a ninguna.
      * 
      * @see makePath
-     * @see makePath2
      */
-    private Point getLowestGoal(int[][] dist, PlayerType player) {
-        ArrayList<Point> goal;
+    private int getLowestGoal(PlayerType player) {
         int min = Integer.MAX_VALUE;
-        Point pMin = null;
-        if (player == PlayerType.PLAYER2) {
-            goal = new ArrayList<>(this.down.size());
-            for (Point p: this.down) {
-                goal.add((Point)p.clone());
-            }
-        } else {
-            goal = new ArrayList<>(this.right.size());
-            for (Point p: this.right) {
-                goal.add((Point)p.clone());
-            }
-        }
-
-        // Get the goal point with the lowest cost.
-        for (Point p: goal) {
-            int x = (int)p.getX();
-            int y = (int)p.getY();
-            if (dist[x][y] < min) {
-                min  = dist[x][y];
-                pMin = (Point)p.clone();
-            }
-        }
-        if (pMin == null) {
-            throw new NullPointerException("LowestGoal");
-        }
-        // System.out.printf("Lowest goal point: [%d, %d]\n", (int)pMin.getX(), (int)pMin.getY());
-        return (Point)pMin.clone();
-    }
-
-    /**
-     * Un método privado que realiza el camino con menor coste desde la fuente hasta el destino.
-     * 
-     * <p>
-     * A diferencia de {@link makePath} este método es recursivo. No es recomendable llamar a este 
-     * método si lo que se quiere obtiener es el camino. Utiliza {@link makePath}.
-     * <p>
-     * El motivo de este método es debido a que existen casos donde hay puntos del tablero en que
-     * estará rodeado por puntos con coste mayor que el propio punto. Al revisar todos los 
-     * vecinos, el algoritmo no encontrará un vecino mayor y esto genera al final un softblock.
-     * <p>
-     * Para evitar esto, cuando se consulte los vecinos de un punto sin salida y no haya un vecino 
-     * con menor distancia, el método retornará falso. En caso contrario, retornará true.
-     * <p>
-     * Este método se ha de llamar dos veces, creando un camino desde la primera fila o columna hasta
-     * el punto con distancia cero.
-     *
-     * @param board  El tablero del juego.
-     * @param prev   Una {@link ArrayList<Point>} con el camino de menor distancia.
-     * @param dist   Una matriz con las distancias desde la fuente.
-     * @param pMin   Punto mínimo. Si se va a llamar a este método, use {@link getLowestSource}
-     *               y {@link getLowestGoal} como valor del argumento.
-     * @return       True si un punto es válido para el camino. False en caso contrario.
-     * 
-     * @see makePath
-     * @see getLowestSource
-     * @see getLowestGoal
-     */
-    private boolean makePath2(HexGameStatus board, ArrayList<Point> prev, int[][] dist, Point pMin) {
-        int x = (int)pMin.getX();
-        int y = (int)pMin.getY();
-        int min = dist[x][y];
-
-        if (min == 0) {
-            return true;
-        }
-
-        List<Point> neighList = board.getNeigh(pMin);
-        boolean found = false;
-        for (Point neigh: neighList) {
-            int xNeigh = (int)neigh.getX();
-            int yNeigh = (int)neigh.getY();
-            if (dist[xNeigh][yNeigh] < min) {
-                found = makePath2(board, prev, dist, neigh);
-                if (found == true) {
-                    prev.add((Point)neigh.clone());
-                    min = dist[xNeigh][yNeigh];
-                    break;
-                    // pMin.move(xNeigh, yNeigh);
-                }
+        int cMin = -1;
+        for (int i = 0; i < boardSize; ++i) {
+            int c = player == PlayerType.PLAYER2 ? i * boardSize + boardSize - 1
+                                                 : (boardSize - 1) * boardSize + i;
+            if (getDistance(c) < min) {
+                min  = getDistance(c);
+                cMin = c;
             }
         }
-        return found;
+        return cMin;
     }
 
     /**
-     * Construye una {@link ArrayList<Point>} con el camino de menor coste en el tablero.
-     * 
+     * Escribe en {@code path} el camino de menor coste en el tablero y cuenta sus casillas
+     * de cada tipo.
      * <p>
-     * Se recomienda usar este método en vez de {@link makePath2}.
+     * El camino son dos ramas del árbol de predecesores que deja {@link #shortestPaths}: la
+     * que va de la fuente a la casilla más cercana del último lado y la que va a la más
+     * cercana del primer lado. Cada rama se recorre de forma iterativa desde la casilla del
+     * lado hasta la fuente, que aparece una vez en cada rama.
      * 
      * @param board  El tablero del juego.
-     * @param dist   Una matriz con las distancias desde la fuente. Las dimensiones de la matriz cuadrada es igual tamaño que el tablero.
      * @param player El juegador que hace la consulta del camino.
-     * @return       Una {@link ArrayList<Point>} con el camino con menor coste.
+     * @param path   Array donde se escribe el camino.
+     * @return       El número de casillas del camino, o {@code -1} si no se llega a alguno
+     *               de los dos lados.
      * 
      * @see dijkstra
-     * @see makePath2
      */
-    private ArrayList<Point> makePath(HexGameStatus board, int[][] dist, PlayerType player) {
-        ArrayList<Point> prev = new ArrayList<Point>();
-        // Utils.printDist(dist, boardSize);
-        try {
-            Point pGoal   = getLowestGoal(dist, player);
-            Point pSource = getLowestSource(dist, player);
-            Point clone1 = (Point)pGoal.clone();
-            Point clone2 = (Point)pSource.clone();
-            boolean toSource = makePath2(board, prev, dist, pSource);
-            boolean toGoal   = makePath2(board, prev, dist, pGoal);
-            prev.add(clone1);
-            prev.add(clone2);
-            return prev;
-        } catch (NullPointerException error) {
-            return null;
+    private int makePath(SearchBoard board, PlayerType player, int[] path) {
+        int cGoal   = getLowestGoal(player);
+        int cSource = getLowestSource(player);
+        pathLength = 0;
+        pathOwn = pathEmpty = pathEnemy = 0;
+        if (cGoal < 0 || cSource < 0) {
+            return -1;
+        }
+        int playerColor = PlayerType.getColor(player);
+        for (int side = 0; side < 2; ++side) {
+            for (int c = side == 0 ? cGoal : cSource; c >= 0; c = pred[c]) {
+                path[pathLength++] = c;
+                int color = board.getPos(c);
+                if (color == playerColor) {
+                    ++pathOwn;
+                } else if (color == 0) {
+                    ++pathEmpty;
+                } else {
+                    ++pathEnemy;
+                }
+            }
         }
+        return pathLength;
     }
 
     /**
      * Realiza una ejecución del algoritmo Dijkstra y devuelve el mejor camino.
      * <p>
-     * Es una implementación de Dijkstra que consulta la distancia desde la fuente 
-     * ({@code sourcePoint}) hasta todos los demás puntos del tablero e introduce 
-     * las distancias en una matriz cuadrada {@link int[][]} (con tamaño igual al del tablero).
+     * Es una implementación de Dijkstra que consulta la distancia desde la fuente
+     * ({@code sourcePoint}) hasta todos los demás puntos del tablero. Las distancias quedan
+     * en el espacio de trabajo de la instancia, un array por casilla marcado con la época de
+     * la búsqueda, y se consultan con {@link #getDistance(int, int)}.
      * <p>
      * El resultado final es una {@link ArrayList<Point>} con el camino de menor 
      * coste desde la fuente hasta el final del tablero.
@@ -316,75 +272,424 @@ public class Dijkstra {
      * @see <a href="https://en.wikipedia.org/wiki/Dijkstra%27s_algorithm#Pseudocode">https://en.wikipedia.org/wiki/Dijkstra%27s_algorithm#Pseudocode</a>
      */
     public ArrayList<Point> dijkstra(HexGameStatus board, PlayerType player, Point sourcePoint) {
+        return dijkstra(new SearchBoard(board), player, sourcePoint);
+    }
+
+    /**
+     * Igual que {@link #dijkstra(HexGameStatus, PlayerType, Point)} pero sobre el tablero
+     * de búsqueda, para no tener que copiar el {@link HexGameStatus} en cada nodo.
+     * @param board       El tablero de búsqueda.
+     * @param player      El juegador que hace la consulta del camino.
+     * @param sourcePoint Es el punto fuente. Tentativamente, es la última jugada.
+     * @return            Una {@link ArrayList<Point>} con el mejor camino posible.
+     */
+    public ArrayList<Point> dijkstra(SearchBoard board, PlayerType player, Point sourcePoint) {
+        int source = (int)sourcePoint.getX() * boardSize + (int)sourcePoint.getY();
+        int length = dijkstra(board, player, source);
+        if (length < 0) {
+            return null;
+        }
+        ArrayList<Point> prev = new ArrayList<>(length);
+        for (int i = 0; i < length; ++i) {
+            prev.add(Utils.toPoint(pathBuf[i], boardSize));
+        }
+        return prev;
+    }
+
+    /**
+     * Igual que {@link #dijkstra(SearchBoard, PlayerType, Point)} con índices de casilla:
+     * no crea ningún objeto. Las casillas del camino se consultan con {@link #getPath()} y
+     * su coste con {@link #getCostOfPath(int[], int)}.
+     * @param board  El tablero de búsqueda.
+     * @param player El juegador que hace la consulta del camino.
+     * @param source La casilla fuente como índice {@code x * size + y}.
+     * @return       El número de casillas del camino, o {@code -1} si no se llega a alguno
+     *               de los dos lados.
+     */
+    public int dijkstra(SearchBoard board, PlayerType player, int source) {
         /* From a point (i, j), check the following points:
          * (i  , j-1);           (i+1, j-1)
          * (i-1, j)  ; ((i, j)); (i+1, j)
          * (i-1, j+1);           (i  , j+1)
          */
-        PlayerType enemy = PlayerType.opposite(player);
+        shortestPaths(board, PlayerType.getColor(player), source);
+        return makePath(board, player, pathBuf);
+    }
 
-        int playerColor = PlayerType.getColor(player);
-        int enemyColor  = PlayerType.getColor(enemy);
+    /**
+     * Retorna el array con las casillas del camino de la última llamada a
+     * {@link #dijkstra(SearchBoard, PlayerType, int)}. El array se reutiliza en cada llamada.
+     * @return Las casillas del camino; solo son válidas las primeras {@link #getPathLength()}.
+     */
+    public int[] getPath() {
+        return pathBuf;
+    }
 
-        List<Point> source;
-        if (player == PlayerType.PLAYER2) {
-            source = new ArrayList<>(this.up.size());
-            for (Point p: this.up) {
-                source.add((Point)p.clone());
-            }
-        } else {
-            source = new ArrayList<>(this.left.size());
-            for (Point p: this.left) {
-                source.add((Point)p.clone());
-            }
+    /**
+     * @return El número de casillas del último camino, o {@code 0} si no había camino.
+     */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /**
+     * @return Las casillas del último camino ocupadas por el jugador que hizo la consulta.
+     */
+    public int getPathOwn() {
+        return pathOwn;
+    }
+
+    /**
+     * @return Las casillas vacías del último camino.
+     */
+    public int getPathEmpty() {
+        return pathEmpty;
+    }
+
+    /**
+     * @return Las casillas del último camino ocupadas por el rival.
+     */
+    public int getPathEnemy() {
+        return pathEnemy;
+    }
+
+    /**
+     * Busca el camino más corto entre los dos lados de un jugador.
+     * <p>
+     * A diferencia de {@link #dijkstra(HexGameStatus, PlayerType, Point)}, no parte de una
+     * casilla concreta: todas las casillas del primer lado del jugador son fuentes a la
+     * vez y la búsqueda se detiene en cuanto se cierra la primera casilla del último lado.
+     * El camino se reconstruye con el predecesor de cada casilla, así que siempre es un
+     * camino conexo y de coste mínimo. El coste se puede consultar después con
+     * {@link #getConnectionCost()}.
+     * @param board  El tablero del juego.
+     * @param player El juegador que hace la consulta del camino.
+     * @return       Las casillas del camino, del último lado al primero.
+     */
+    public ArrayList<Point> edgeToEdge(HexGameStatus board, PlayerType player) {
+        return edgeToEdge(new SearchBoard(board), player);
+    }
+
+    /**
+     * Igual que {@link #edgeToEdge(HexGameStatus, PlayerType)} sobre el tablero de búsqueda.
+     * @param board  El tablero de búsqueda.
+     * @param player El juegador que hace la consulta del camino.
+     * @return       Las casillas del camino, del último lado al primero.
+     */
+    public ArrayList<Point> edgeToEdge(SearchBoard board, PlayerType player) {
+        return edgeToEdge(board, player, null);
+    }
+
+    /**
+     * Igual que {@link #edgeToEdge(SearchBoard, PlayerType)} teniendo en cuenta las
+     * conexiones virtuales del jugador: dos fichas unidas por un puente son vecinas y una
+     * ficha conectada con un lado por una plantilla está en ese lado, cada una con un coste
+     * añadido de {@link #VIRTUAL_COST}. El camino salta los portadores de estas conexiones.
+     * @param board  El tablero de búsqueda.
+     * @param player El juegador que hace la consulta del camino.
+     * @param vc     Las conexiones virtuales de {@code board}, o {@code null} para no usarlas.
+     * @return       Las casillas del camino, del último lado al primero.
+     */
+    public ArrayList<Point> edgeToEdge(SearchBoard board, PlayerType player, VirtualConnections vc) {
+        int goal = edgePaths(board, PlayerType.getColor(player), vc);
+        if (goal == boardSize * boardSize) {
+            goal = pred[goal];
+        }
+        ArrayList<Point> path = new ArrayList<>();
+        for (int c = goal; c >= 0; c = pred[c]) {
+            path.add(new Point(c / boardSize, c % boardSize));
+        }
+        return path;
+    }
+
+    /**
+     * Igual que {@link #edgeToEdge(SearchBoard, PlayerType)}, pero escribe el camino en
+     * {@code path} como índices de casilla en lugar de crear una lista.
+     * @param board  El tablero de búsqueda.
+     * @param player El juegador que hace la consulta del camino.
+     * @param path   Array de al menos {@code size * size} posiciones.
+     * @return       El número de casillas del camino, escritas del último lado al primero.
+     */
+    public int edgePath(SearchBoard board, PlayerType player, int[] path) {
+        int goal = edgePaths(board, PlayerType.getColor(player), null);
+        int k = 0;
+        for (int c = goal; c >= 0; c = pred[c]) {
+            path[k++] = c;
         }
+        return k;
+    }
+
+    /**
+     * Retorna el coste mínimo de unir los dos lados de un jugador, sin construir el camino.
+     * @param board  El tablero de búsqueda.
+     * @param player El juegador que hace la consulta.
+     * @return       La suma de los costes de las casillas del camino más corto.
+     */
+    public int connectionCost(SearchBoard board, PlayerType player) {
+        return connectionCost(board, player, null);
+    }
 
-        int x = (int)sourcePoint.getX();
-        int y = (int)sourcePoint.getY();
+    /**
+     * Igual que {@link #connectionCost(SearchBoard, PlayerType)} teniendo en cuenta las
+     * conexiones virtuales del jugador, como en
+     * {@link #edgeToEdge(SearchBoard, PlayerType, VirtualConnections)}.
+     * @param board  El tablero de búsqueda.
+     * @param player El juegador que hace la consulta.
+     * @param vc     Las conexiones virtuales de {@code board}, o {@code null} para no usarlas.
+     * @return       El coste del camino más corto.
+     */
+    public int connectionCost(SearchBoard board, PlayerType player, VirtualConnections vc) {
+        edgePaths(board, PlayerType.getColor(player), vc);
+        return connectionCost;
+    }
 
-        int     [][] dist    = new int    [boardSize][boardSize];
-        boolean [][] visited = new boolean[boardSize][boardSize];
+    /**
+     * Retorna el coste del último camino calculado con {@link #edgeToEdge(SearchBoard, PlayerType)}
+     * o {@link #connectionCost(SearchBoard, PlayerType)}.
+     * @return La suma de los costes de las casillas del camino.
+     */
+    public int getConnectionCost() {
+        return connectionCost;
+    }
 
+    /**
+     * Dijkstra con todas las casillas del primer lado como fuentes, con la misma cola por
+     * cubetas que {@link #shortestPaths(SearchBoard, int, int)}. La distancia de una fuente
+     * es su propio coste. Se detiene al cerrar la primera casilla del último lado.
+     * <p>
+     * Con conexiones virtuales, las fichas conectadas con el primer lado por una plantilla
+     * también son fuentes, las fichas propias se relajan además con sus compañeros de
+     * puente y las conectadas con el último lado llevan al destino virtual {@code n}.
+     * @param board       El tablero.
+     * @param playerColor Color del jugador que hace la consulta.
+     * @param vc          Las conexiones virtuales, o {@code null}.
+     * @return            La casilla del último lado en la que acaba el camino, {@code n} si
+     *                    acaba en el destino virtual, o {@code -1} si no hay casillas (no
+     *                    puede pasar con costes finitos).
+     */
+    private int edgePaths(SearchBoard board, int playerColor, VirtualConnections vc) {
+        newSearch();
+        int sink = boardSize * boardSize;
+
+        int pending = 0, nextPending = 0;
         for (int i = 0; i < boardSize; ++i) {
-            for (int j = 0; j < boardSize; ++j) {
-                visited[i][j] = false;
-                dist   [i][j] = Integer.MAX_VALUE;
+            int c = playerColor == 1 ? i : i * boardSize;
+            int cost = cost(board, c, playerColor);
+            setDistance(c, cost);
+            pred[c] = -1;
+            if (cost == ENEMY_COST) {
+                nextPending += push(nextHead, 0, c);
+            } else {
+                pending += push(head, cost, c);
             }
         }
-        dist[x][y] = 0;
-        for (int i = 0; i < boardSize; ++i) {
-            for (int j = 0; j < boardSize; ++j) {
-                Point minPoint = minDistancePoint(board, enemyColor, dist, visited);
-                int xMin = (int)minPoint.getX();
-                int yMin = (int)minPoint.getY();
-
-                visited[xMin][yMin] = true;
-
-                List<Point> toVisit = new ArrayList<>(board.getNeigh(minPoint));
-                for (Point neigh: toVisit) {
-                    int xNeigh = (int)neigh.getX();
-                    int yNeigh = (int)neigh.getY();
-                    int colorNeigh = board.getPos(neigh);
-                    int cost = 0;
-
-                    if (colorNeigh == enemyColor) {
-                        cost = 100000;
+        if (vc != null) {
+            for (int c = 0; c < sink; ++c) {
+                if ((vc.edges(playerColor, c) & VirtualConnections.START) != 0) {
+                    setDistance(c, OWN_COST + VIRTUAL_COST);
+                    pred[c] = -1;
+                    pending += push(head, OWN_COST + VIRTUAL_COST, c);
+                }
+            }
+        }
+        int layerBase = 0;
+        int goal = -1;
+        while (goal < 0 && pending + nextPending > 0) {
+            for (int r = 0; goal < 0 && pending > 0 && r < head.length; ++r) {
+                int e = head[r];
+                head[r] = -1;
+                for (; e >= 0; e = entryNext[e]) {
+                    --pending;
+                    int u = entryCell[e];
+                    if (mark[u] != reached || dist[u] != layerBase + r) {
+                        continue;
+                    }
+                    mark[u] = reached + 1;
+                    if (u == sink) {
+                        goal = u;
+                        break;
                     }
-                    else if (colorNeigh == playerColor) {
-                        cost = 1;
+                    int coord = playerColor == 1 ? u / boardSize : u % boardSize;
+                    if (coord == boardSize - 1) {
+                        goal = u;
+                        break;
                     }
-                    else if (colorNeigh != playerColor && colorNeigh != enemyColor) {
-                        cost = 5;
+                    if (vc != null && board.getPos(u) == playerColor) {
+                        pending += relaxVirtual(board, vc, playerColor, u, r);
                     }
-                    
-                    if (visited[xNeigh][yNeigh] == false && dist[xMin][yMin] + cost < dist[xNeigh][yNeigh]) {
-                        dist[xNeigh][yNeigh] = dist[xMin][yMin] + cost;
+                    for (int v : board.neighbours(u)) {
+                        int m = mark[v];
+                        if (m > reached) {
+                            continue;
+                        }
+                        int cost = cost(board, v, playerColor);
+                        int nd = dist[u] + cost;
+                        if (m < reached || nd < dist[v]) {
+                            setDistance(v, nd);
+                            pred[v] = u;
+                            if (cost == ENEMY_COST) {
+                                nextPending += push(nextHead, r, v);
+                            } else {
+                                pending += push(head, r + cost, v);
+                            }
+                        }
                     }
                 }
             }
+            if (goal < 0) {
+                int[] tmp = head;
+                head = nextHead;
+                nextHead = tmp;
+                pending = nextPending;
+                nextPending = 0;
+                layerBase += ENEMY_COST;
+            }
         }
-        this.distanceMap = Utils.copy2DArray(dist);
-        ArrayList<Point> prev = makePath(board, dist, player);
-        return prev;
+        // Vaciamos las cubetas que quedan para la próxima búsqueda
+        Arrays.fill(head, 0, topBucket + 1, -1);
+        Arrays.fill(nextHead, 0, topBucket + 1, -1);
+        connectionCost = goal >= 0 ? dist[goal] : Integer.MAX_VALUE;
+        return goal;
+    }
+
+    /**
+     * Relaja desde la ficha propia {@code u} sus compañeros de puente y, si tiene plantilla
+     * con el último lado, el destino virtual.
+     * @return El número de entradas añadidas a la cola.
+     */
+    private int relaxVirtual(SearchBoard board, VirtualConnections vc, int playerColor, int u, int r) {
+        int added = 0;
+        int[] partners = vc.partners(u);
+        for (int mask = vc.bridges(playerColor, u); mask != 0; mask &= mask - 1) {
+            int v = partners[Integer.numberOfTrailingZeros(mask)];
+            added += relax(u, v, OWN_COST + VIRTUAL_COST, r);
+        }
+        if ((vc.edges(playerColor, u) & VirtualConnections.END) != 0) {
+            added += relax(u, boardSize * boardSize, VIRTUAL_COST, r);
+        }
+        return added;
+    }
+
+    private int relax(int u, int v, int cost, int r) {
+        int m = mark[v];
+        if (m > reached) {
+            return 0;
+        }
+        int nd = dist[u] + cost;
+        if (m < reached || nd < dist[v]) {
+            setDistance(v, nd);
+            pred[v] = u;
+            return push(head, r + cost, v);
+        }
+        return 0;
+    }
+
+    private static int cost(SearchBoard board, int cell, int playerColor) {
+        int color = board.getPos(cell);
+        return color == playerColor ? OWN_COST
+             : color == 0           ? EMPTY_COST
+                                    : ENEMY_COST;
+    }
+
+    /**
+     * Calcula en {@code dist} la distancia desde {@code source} hasta todas las casillas.
+     * <p>
+     * En lugar de buscar en todo el tablero la casilla con menor distancia en cada paso,
+     * se usa una cola de prioridad por cubetas (algoritmo de Dial). Los costes son 1, 5 y
+     * 100000, y la parte de una distancia que se debe a casillas propias y vacías nunca
+     * llega a {@code 5 * n}, con {@code n} el número de casillas. Por tanto, toda distancia
+     * es {@code capa * 100000 + resto}, donde la capa es el número de casillas enemigas
+     * del camino, y ordenar por distancia es lo mismo que ordenar por (capa, resto).
+     * <p>
+     * Cada capa se procesa con cubetas indexadas por el resto: pasar por una casilla
+     * propia o vacía añade la casilla a una cubeta posterior de la misma capa, y pasar por
+     * una enemiga la añade a la misma cubeta de la capa siguiente. Las entradas obsoletas
+     * se descartan al sacarlas. Así cada capa cuesta O(n) y las distancias son exactamente
+     * las mismas que las del algoritmo de Dijkstra original.
+     * <p>
+     * Cada casilla guarda en {@code pred} la casilla desde la que se alcanzó su distancia,
+     * lo que forma el árbol de caminos más cortos desde {@code source}.
+     *
+     * @param board       El tablero.
+     * @param playerColor Color del jugador que hace la consulta.
+     * @param source      Casilla fuente como índice {@code x * size + y}.
+     */
+    private void shortestPaths(SearchBoard board, int playerColor, int source) {
+        newSearch();
+
+        setDistance(source, 0);
+        pred[source] = -1;
+        int pending = push(head, 0, source);
+        int layerBase = 0;
+        while (pending > 0) {
+            int nextPending = 0;
+            for (int r = 0; pending > 0 && r < head.length; ++r) {
+                int e = head[r];
+                head[r] = -1;
+                for (; e >= 0; e = entryNext[e]) {
+                    --pending;
+                    int u = entryCell[e];
+                    if (mark[u] != reached || dist[u] != layerBase + r) {
+                        continue;
+                    }
+                    mark[u] = reached + 1;
+                    for (int v : board.neighbours(u)) {
+                        int m = mark[v];
+                        if (m > reached) {
+                            continue;
+                        }
+                        int color = board.getPos(v);
+                        int cost = color == playerColor ? OWN_COST
+                                 : color == 0           ? EMPTY_COST
+                                                        : ENEMY_COST;
+                        int nd = dist[u] + cost;
+                        if (m < reached || nd < dist[v]) {
+                            setDistance(v, nd);
+                            pred[v] = u;
+                            if (cost == ENEMY_COST) {
+                                nextPending += push(nextHead, r, v);
+                            } else {
+                                pending += push(head, r + cost, v);
+                            }
+                        }
+                    }
+                }
+            }
+            int[] tmp = head;
+            head = nextHead;
+            nextHead = tmp;
+            pending = nextPending;
+            layerBase += ENEMY_COST;
+        }
+    }
+
+    /**
+     * Empieza una búsqueda nueva: todas las distancias pasan a ser infinitas y todas las
+     * casillas quedan abiertas sin recorrer los arrays.
+     */
+    private void newSearch() {
+        reached += 2;
+        if (reached < 0) {
+            // Tras dar la vuelta el contador, las marcas antiguas podrían coincidir
+            Arrays.fill(mark, 0);
+            reached = 2;
+        }
+        entries   = 0;
+        topBucket = 0;
+    }
+
+    private void setDistance(int cell, int d) {
+        dist[cell] = d;
+        mark[cell] = reached;
+    }
+
+    private int push(int[] buckets, int r, int cell) {
+        if (r > topBucket) {
+            topBucket = r;
+        }
+        entryCell[entries] = cell;
+        entryNext[entries] = buckets[r];
+        buckets[r] = entries++;
+        return 1;
     }
 }
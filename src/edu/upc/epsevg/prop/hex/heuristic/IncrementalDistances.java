@@ -0,0 +1,362 @@
+package edu.upc.epsevg.prop.hex.heuristic;
+
+import edu.upc.epsevg.prop.hex.*;
+
+import java.util.Arrays;
+
+/**
+ * Distancias más cortas desde los cuatro lados del tablero que se reparan de forma
+ * incremental al colocar y retirar fichas.
+ * <p>
+ * Se guardan cuatro mapas: para cada jugador, la distancia de cada casilla a su primer
+ * lado y a su último lado. La distancia de una casilla es la suma de los costes de las
+ * casillas del camino, incluida ella misma, con los mismos costes que {@link Dijkstra}:
+ * 1 las propias, 5 las vacías y 100000 las del rival.
+ * <p>
+ * Una ficha nueva solo cambia el coste de su casilla, así que solo hay que reparar la
+ * zona afectada de cada mapa:
+ * <ul>
+ *   <li>Si el coste baja (ficha propia), se relaja la casilla y se propaga la mejora con
+ *       Dijkstra a partir de ella.</li>
+ *   <li>Si el coste sube (ficha del rival), primero se buscan en orden de distancia las
+ *       casillas que ya no tienen ningún vecino no afectado que justifique su distancia;
+ *       después se recalculan desde el borde de esa zona y se propaga con Dijkstra.</li>
+ * </ul>
+ * Cada valor que cambia se apunta en un registro. Al retirar la ficha, los valores se
+ * restauran desde el registro, de modo que en la búsqueda cada nodo reutiliza las
+ * distancias del padre.
+ * <p>
+ * Se conecta al tablero con {@link SearchBoard#setListener(SearchBoard.Listener)}. Las
+ * instancias no son seguras entre hilos.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class IncrementalDistances implements SearchBoard.Listener {
+    private static final int OWN_COST   = 1;
+    private static final int EMPTY_COST = 5;
+    private static final int ENEMY_COST = 100000;
+    private static final int INF = Integer.MAX_VALUE / 2;
+
+    private final int size;
+    private final int n;
+    private final int[][] dist;
+
+    // Registro de cambios: (mapa * n + casilla, valor anterior), y su tamaño por ficha
+    private int[] logCell;
+    private int[] logValue;
+    private int logTop;
+    private final int[] marks;
+    private int moves;
+
+    // Cola de prioridad (montículo binario con entradas obsoletas)
+    private int[] heapKey;
+    private int[] heapCell;
+    private int heapSize;
+
+    // Marcas de la zona afectada por época, para no tener que limpiarlas
+    private final int[] affected;
+    private final int[] queued;
+    private int epoch;
+    private final int[] zone;
+
+    /**
+     * Construye las distancias de la posición actual de {@code board}.
+     * @param board El tablero de búsqueda.
+     */
+    public IncrementalDistances(SearchBoard board) {
+        this.size     = board.getSize();
+        this.n        = size * size;
+        this.dist     = new int[4][n];
+        this.logCell  = new int[16 * n];
+        this.logValue = new int[16 * n];
+        this.marks    = new int[n + 1];
+        this.heapKey  = new int[8 * n];
+        this.heapCell = new int[8 * n];
+        this.affected = new int[n];
+        this.queued   = new int[n];
+        this.zone     = new int[n];
+        reset(board);
+    }
+
+    /**
+     * Recalcula desde cero las distancias de {@code board} y vacía el registro.
+     * @param board El tablero de búsqueda.
+     */
+    public void reset(SearchBoard board) {
+        for (int m = 0; m < 4; ++m) {
+            int[] d = dist[m];
+            Arrays.fill(d, INF);
+            heapSize = 0;
+            for (int c = 0; c < n; ++c) {
+                if (onSide(m, c)) {
+                    d[c] = cost(board, m, c);
+                    push(c, d[c]);
+                }
+            }
+            propagate(board, m, false);
+        }
+        logTop = 0;
+        moves  = 0;
+    }
+
+    /**
+     * Retorna la distancia de una casilla a uno de los lados de un jugador.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @param start {@code true} para el primer lado, {@code false} para el último.
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @return      La suma de costes del camino más corto, incluida la casilla.
+     */
+    public int distance(int color, boolean start, int cell) {
+        return dist[map(color, start)][cell];
+    }
+
+    /**
+     * Retorna el coste del camino más corto entre los dos lados de un jugador.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @return      El coste del camino.
+     */
+    public int connection(int color) {
+        int[] d = dist[map(color, true)];
+        int best = INF;
+        for (int c = 0; c < n; ++c) {
+            if (onSide(map(color, false), c))
+                best = Math.min(best, d[c]);
+        }
+        return best;
+    }
+
+    /**
+     * Escribe el camino más corto entre los dos lados de un jugador que pasa por {@code source}.
+     * <p>
+     * Se baja por el mapa de cada lado desde {@code source}, siempre al primer vecino que
+     * justifica la distancia. La casilla {@code source} aparece una vez por cada mitad.
+     * @param board  El tablero de búsqueda.
+     * @param color  Color del jugador ({@code 1} o {@code -1}).
+     * @param source La casilla de paso como índice {@code x * size + y}.
+     * @param out    Array de al menos {@code 2 * size * size} posiciones.
+     * @return       El número de casillas escritas.
+     */
+    public int path(SearchBoard board, int color, int source, int[] out) {
+        int k = 0;
+        for (int side = 0; side < 2; ++side) {
+            int m = map(color, side == 0);
+            int[] d = dist[m];
+            int cur = source;
+            out[k++] = cur;
+            while (!(onSide(m, cur) && d[cur] == cost(board, m, cur))) {
+                int want = d[cur] - cost(board, m, cur);
+                for (int v : board.neighbours(cur)) {
+                    if (d[v] == want) {
+                        cur = v;
+                        break;
+                    }
+                }
+                out[k++] = cur;
+            }
+        }
+        return k;
+    }
+
+    @Override
+    public void placed(SearchBoard board, int cell, int color) {
+        marks[moves++] = logTop;
+        for (int m = 0; m < 4; ++m) {
+            // Para el dueño del mapa la casilla pasa de vacía a propia o a enemiga
+            if (owner(m) == color)
+                decrease(board, m, cell);
+            else
+                increase(board, m, cell);
+        }
+    }
+
+    @Override
+    public void removed(SearchBoard board, int cell, int color) {
+        int mark = marks[--moves];
+        while (logTop > mark) {
+            --logTop;
+            int e = logCell[logTop];
+            dist[e / n][e % n] = logValue[logTop];
+        }
+    }
+
+    /**
+     * Repara un mapa después de que baje el coste de {@code cell}.
+     */
+    private void decrease(SearchBoard board, int m, int cell) {
+        int nd = cost(board, m, cell) + support(board, m, cell, false);
+        heapSize = 0;
+        if (nd < dist[m][cell]) {
+            set(m, cell, nd);
+            push(cell, nd);
+        }
+        propagate(board, m, true);
+    }
+
+    /**
+     * Repara un mapa después de que suba el coste de {@code cell}.
+     */
+    private void increase(SearchBoard board, int m, int cell) {
+        int[] d = dist[m];
+        ++epoch;
+        int count = 0;
+
+        // 1. Zona afectada, en orden de distancia: las casillas cuya distancia dependía de
+        //    otra casilla afectada y que no tienen otro apoyo
+        heapSize = 0;
+        queued[cell] = epoch;
+        push(cell, d[cell]);
+        while (heapSize > 0) {
+            int u = pop();
+            if (u != cell && supported(board, m, u))
+                continue;
+            affected[u] = epoch;
+            zone[count++] = u;
+            for (int v : board.neighbours(u)) {
+                if (queued[v] != epoch && d[v] == d[u] + cost(board, m, v)) {
+                    queued[v] = epoch;
+                    push(v, d[v]);
+                }
+            }
+        }
+
+        // 2. Recalculamos la zona desde sus vecinos no afectados
+        heapSize = 0;
+        for (int i = 0; i < count; ++i) {
+            int u = zone[i];
+            int base = support(board, m, u, true);
+            int nd = base >= INF ? INF : cost(board, m, u) + base;
+            set(m, u, nd);
+            if (nd < INF)
+                push(u, nd);
+        }
+        propagate(board, m, true);
+    }
+
+    /**
+     * Consulta si una casilla tiene un apoyo fuera de la zona afectada que justifique su
+     * distancia: el propio lado o un vecino no afectado.
+     */
+    private boolean supported(SearchBoard board, int m, int u) {
+        int[] d = dist[m];
+        int c = cost(board, m, u);
+        if (onSide(m, u) && d[u] == c)
+            return true;
+        for (int w : board.neighbours(u)) {
+            if (affected[w] != epoch && d[w] + c == d[u])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Retorna la menor distancia de la que puede venir una casilla: 0 si está en el lado,
+     * o la menor distancia de sus vecinos.
+     * @param skipAffected Si es {@code true}, no se tienen en cuenta los vecinos afectados.
+     */
+    private int support(SearchBoard board, int m, int u, boolean skipAffected) {
+        if (onSide(m, u))
+            return 0;
+        int[] d = dist[m];
+        int best = INF;
+        for (int w : board.neighbours(u)) {
+            if (skipAffected && affected[w] == epoch)
+                continue;
+            best = Math.min(best, d[w]);
+        }
+        return best;
+    }
+
+    /**
+     * Dijkstra a partir de las casillas que hay en la cola.
+     * @param log Si es {@code true}, los cambios se apuntan en el registro.
+     */
+    private void propagate(SearchBoard board, int m, boolean log) {
+        int[] d = dist[m];
+        while (heapSize > 0) {
+            int key = heapKey[0];
+            int u = pop();
+            if (key != d[u])
+                continue;
+            for (int v : board.neighbours(u)) {
+                int nd = key + cost(board, m, v);
+                if (nd < d[v]) {
+                    if (log)
+                        set(m, v, nd);
+                    else
+                        d[v] = nd;
+                    push(v, nd);
+                }
+            }
+        }
+    }
+
+    private void set(int m, int cell, int value) {
+        if (logTop == logCell.length) {
+            logCell  = Arrays.copyOf(logCell,  2 * logTop);
+            logValue = Arrays.copyOf(logValue, 2 * logTop);
+        }
+        logCell[logTop]  = m * n + cell;
+        logValue[logTop] = dist[m][cell];
+        ++logTop;
+        dist[m][cell] = value;
+    }
+
+    private int cost(SearchBoard board, int m, int cell) {
+        int color = board.getPos(cell);
+        return color == 0 ? EMPTY_COST : color == owner(m) ? OWN_COST : ENEMY_COST;
+    }
+
+    private static int map(int color, boolean start) {
+        return (color == 1 ? 0 : 2) + (start ? 0 : 1);
+    }
+
+    private static int owner(int m) {
+        return m < 2 ? 1 : -1;
+    }
+
+    private boolean onSide(int m, int cell) {
+        int coord = m < 2 ? cell / size : cell % size;
+        return coord == ((m & 1) == 0 ? 0 : size - 1);
+    }
+
+    private void push(int cell, int key) {
+        if (heapSize == heapKey.length) {
+            heapKey  = Arrays.copyOf(heapKey,  2 * heapSize);
+            heapCell = Arrays.copyOf(heapCell, 2 * heapSize);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKey[parent] <= key)
+                break;
+            heapKey[i]  = heapKey[parent];
+            heapCell[i] = heapCell[parent];
+            i = parent;
+        }
+        heapKey[i]  = key;
+        heapCell[i] = cell;
+    }
+
+    private int pop() {
+        int top = heapCell[0];
+        int key  = heapKey[--heapSize];
+        int cell = heapCell[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child])
+                ++child;
+            if (heapKey[child] >= key)
+                break;
+            heapKey[i]  = heapKey[child];
+            heapCell[i] = heapCell[child];
+            i = child;
+        }
+        heapKey[i]  = key;
+        heapCell[i] = cell;
+        return top;
+    }
+}
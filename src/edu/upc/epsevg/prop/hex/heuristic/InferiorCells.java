@@ -0,0 +1,314 @@
+package edu.upc.epsevg.prop.hex.heuristic;
+
+import edu.upc.epsevg.prop.hex.*;
+
+import java.util.Arrays;
+
+/**
+ * Análisis de casillas inferiores con patrones locales sobre el anillo de seis vecinos.
+ * <p>
+ * Para cada casilla vacía se mira qué hay en sus seis vecinos, en orden circular: fichas de
+ * cada jugador, casillas vacías o lados del tablero (un lado cuenta como una ficha de su
+ * jugador). Con eso se reconocen:
+ * <ul>
+ *   <li>Casillas inútiles para un jugador: una ficha suya en la casilla no une nada que no
+ *       estuviera ya unido. Pasa si cada par de vecinos que no son del rival son
+ *       consecutivos en el anillo o están unidos por un arco de fichas propias.</li>
+ *   <li>Casillas muertas: inútiles para los dos jugadores. Su color no cambia el resultado
+ *       de la partida, así que se pueden rellenar con cualquier color y nunca hace falta
+ *       jugar en ellas.</li>
+ *   <li>Pares capturados: dos casillas vecinas vacías tales que, si el rival juega en una y
+ *       el jugador responde en la otra, la ficha del rival queda muerta. El par vale lo
+ *       mismo que dos fichas del jugador, así que se puede rellenar con su color.</li>
+ * </ul>
+ * Jugar en una casilla muerta o en un par capturado (de cualquiera de los dos jugadores)
+ * no es mejor que pasar: son jugadas dominadas por cualquier otra. {@link #prune(SearchBoard, int[], int)}
+ * las quita de la lista de movimientos y {@link #fillIn(SearchBoard)} rellena el tablero
+ * antes de la búsqueda.
+ * <p>
+ * El resultado de los patrones de cada anillo se calcula una sola vez para las 64 x 64
+ * combinaciones posibles, y los anillos de cada casilla una vez por tamaño de tablero.
+ * Las instancias no son seguras entre hilos.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class InferiorCells {
+    // Direcciones de los vecinos en orden circular: cada una es vecina de la siguiente
+    private static final int[][] RING = {{0, -1}, {1, -1}, {1, 0}, {0, 1}, {-1, 1}, {-1, 0}};
+
+    // Posición del anillo fuera del tablero: lado del jugador 1, del jugador 2 o esquina
+    private static final int EDGE1 = -1;
+    private static final int EDGE2 = -2;
+    private static final int OUT   = -3;
+
+    // USELESS[propias << 6 | rivales]: la casilla es inútil para el jugador
+    private static final boolean[] USELESS = new boolean[64 * 64];
+
+    static {
+        for (int own = 0; own < 64; ++own) {
+            for (int enemy = 0; enemy < 64; ++enemy) {
+                if ((own & enemy) == 0)
+                    USELESS[own << 6 | enemy] = useless(own, enemy);
+            }
+        }
+    }
+
+    private final int size;
+    private final int n;
+    private final int[][] ring;
+    // Máscaras de los lados en el anillo de cada casilla, para el jugador 1 y el 2
+    private final int[] edge1;
+    private final int[] edge2;
+    private final int[] out;
+
+    private final int[] own1;
+    private final int[] own2;
+    private final boolean[] inferior;
+
+    /**
+     * Constructor de la clase {@link InferiorCells}.
+     * @param boardSize El tamaño del tablero.
+     */
+    public InferiorCells(int boardSize) {
+        this.size  = boardSize;
+        this.n     = boardSize * boardSize;
+        this.ring  = new int[n][6];
+        this.edge1 = new int[n];
+        this.edge2 = new int[n];
+        this.out   = new int[n];
+        this.own1  = new int[n];
+        this.own2  = new int[n];
+        this.inferior = new boolean[n];
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                int c = x * size + y;
+                for (int k = 0; k < 6; ++k) {
+                    int nx = x + RING[k][0];
+                    int ny = y + RING[k][1];
+                    boolean inX = nx >= 0 && nx < size;
+                    boolean inY = ny >= 0 && ny < size;
+                    if (inX && inY) {
+                        ring[c][k] = nx * size + ny;
+                    } else if (inY) {
+                        ring[c][k] = EDGE1;
+                        edge1[c] |= 1 << k;
+                    } else if (inX) {
+                        ring[c][k] = EDGE2;
+                        edge2[c] |= 1 << k;
+                    } else {
+                        ring[c][k] = OUT;
+                        out[c] |= 1 << k;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Retorna el tamaño del tablero para el que se ha creado el análisis.
+     * @return El tamaño del tablero.
+     */
+    public int getBoardSize() {
+        return size;
+    }
+
+    /**
+     * Marca las casillas vacías que están muertas o forman parte de un par capturado por
+     * alguno de los dos jugadores.
+     * @param board El tablero de búsqueda.
+     * @return      El número de casillas marcadas.
+     *
+     * @see #isInferior(int)
+     */
+    public int analyse(SearchBoard board) {
+        if (size < 3) {
+            Arrays.fill(inferior, false);
+            return 0;
+        }
+        for (int c = 0; c < n; ++c) {
+            inferior[c] = false;
+            if (board.getPos(c) == 0)
+                masks(board, c);
+        }
+        int count = 0;
+        for (int a = 0; a < n; ++a) {
+            if (board.getPos(a) != 0)
+                continue;
+            if (!inferior[a] && dead(own1[a], own2[a], out[a])) {
+                inferior[a] = true;
+                ++count;
+            }
+            for (int k = 0; k < 6; ++k) {
+                int b = ring[a][k];
+                if (b <= a || board.getPos(b) != 0)
+                    continue;
+                if (captured(a, k, b, 1) || captured(a, k, b, -1)) {
+                    if (!inferior[a]) {
+                        inferior[a] = true;
+                        ++count;
+                    }
+                    if (!inferior[b]) {
+                        inferior[b] = true;
+                        ++count;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Consulta el resultado del último {@link #analyse(SearchBoard)}.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     {@code true} si la casilla está muerta o capturada.
+     */
+    public boolean isInferior(int cell) {
+        return inferior[cell];
+    }
+
+    /**
+     * Quita de una lista de movimientos las casillas muertas y capturadas, manteniendo el
+     * orden del resto. Si todas son inferiores la lista no cambia, porque la partida ya
+     * está decidida y cualquier movimiento sirve.
+     * @param board El tablero de búsqueda.
+     * @param moves Movimientos como índice {@code x * size + y}.
+     * @param n     Número de movimientos en {@code moves}.
+     * @return      El nuevo número de movimientos.
+     */
+    public int prune(SearchBoard board, int[] moves, int n) {
+        int count = analyse(board);
+        if (count == 0 || count >= n)
+            return n;
+        int k = 0;
+        for (int i = 0; i < n; ++i) {
+            if (!inferior[moves[i]])
+                moves[k++] = moves[i];
+        }
+        return k;
+    }
+
+    /**
+     * Rellena el tablero antes de la búsqueda: los pares capturados con fichas de su
+     * jugador y las casillas muertas con fichas del jugador que no mueve. Cada relleno
+     * puede crear casillas muertas o capturadas nuevas, así que se repite hasta que no
+     * queda ninguna.
+     * <p>
+     * Las fichas se colocan con {@link SearchBoard#fill(int, int)}, que no pasa el turno.
+     * El tablero resultante tiene el mismo valor que el original para los dos jugadores.
+     * @param board El tablero de búsqueda, sin fichas colocadas con
+     *              {@link SearchBoard#placeStone(int)}.
+     * @return      El número de casillas rellenadas.
+     */
+    public int fillIn(SearchBoard board) {
+        if (size < 3)
+            return 0;
+        int deadColor = -board.getCurrentColor();
+        int filled = 0;
+        boolean changed = true;
+        while (changed && !board.isGameOver()) {
+            changed = false;
+            for (int c = 0; c < n; ++c) {
+                if (board.getPos(c) == 0) {
+                    masks(board, c);
+                    if (dead(own1[c], own2[c], out[c])) {
+                        board.fill(c, deadColor);
+                        ++filled;
+                        changed = true;
+                    }
+                }
+            }
+            for (int a = 0; a < n; ++a) {
+                if (board.getPos(a) != 0)
+                    continue;
+                for (int k = 0; k < 6; ++k) {
+                    int b = ring[a][k];
+                    if (b <= a || board.getPos(b) != 0)
+                        continue;
+                    // Las máscaras han de reflejar los rellenos anteriores
+                    masks(board, a);
+                    masks(board, b);
+                    int color = captured(a, k, b, 1) ? 1 : captured(a, k, b, -1) ? -1 : 0;
+                    if (color != 0) {
+                        board.fill(a, color);
+                        board.fill(b, color);
+                        filled += 2;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Calcula las máscaras del anillo de una casilla: qué vecinos son del jugador 1 y
+     * cuáles del jugador 2, contando los lados.
+     */
+    private void masks(SearchBoard board, int c) {
+        int m1 = edge1[c];
+        int m2 = edge2[c];
+        int[] r = ring[c];
+        for (int k = 0; k < 6; ++k) {
+            if (r[k] >= 0) {
+                int color = board.getPos(r[k]);
+                if (color == 1)
+                    m1 |= 1 << k;
+                else if (color == -1)
+                    m2 |= 1 << k;
+            }
+        }
+        own1[c] = m1;
+        own2[c] = m2;
+    }
+
+    /**
+     * Consulta si una casilla está muerta. Las posiciones de esquina fuera del tablero no
+     * son de nadie ni hay que unirlas, así que cuentan como del rival para los dos.
+     */
+    private static boolean dead(int m1, int m2, int corner) {
+        return USELESS[m1 << 6 | (m2 | corner)] && USELESS[m2 << 6 | (m1 | corner)];
+    }
+
+    /**
+     * Consulta si el jugador {@code color} tiene capturado el par de casillas vecinas
+     * {@code a} y {@code b}, donde {@code b} está en la posición {@code k} del anillo de
+     * {@code a}: con una ficha suya en cualquiera de las dos, la otra queda muerta.
+     */
+    private boolean captured(int a, int k, int b, int color) {
+        int ka = 1 << k;
+        int kb = 1 << ((k + 3) % 6);
+        if (color == 1) {
+            return dead(own1[a] | ka, own2[a], out[a]) && dead(own1[b] | kb, own2[b], out[b]);
+        }
+        return dead(own1[a], own2[a] | ka, out[a]) && dead(own1[b], own2[b] | kb, out[b]);
+    }
+
+    /**
+     * Calcula si una casilla es inútil para un jugador con sus vecinos propios y rivales.
+     */
+    private static boolean useless(int own, int enemy) {
+        for (int i = 0; i < 6; ++i) {
+            for (int j = i + 1; j < 6; ++j) {
+                if ((enemy >> i & 1) != 0 || (enemy >> j & 1) != 0)
+                    continue;
+                if (!ownArc(own, i, j) && !ownArc(own, j, i))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consulta si todas las posiciones estrictamente entre {@code i} y {@code j}, avanzando
+     * por el anillo, son propias.
+     */
+    private static boolean ownArc(int own, int i, int j) {
+        for (int k = (i + 1) % 6; k != j; k = (k + 1) % 6) {
+            if ((own >> k & 1) == 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,286 @@
+package edu.upc.epsevg.prop.hex.heuristic;
+
+import edu.upc.epsevg.prop.hex.*;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Evaluación por resistencia eléctrica, al estilo de Hexy.
+ * <p>
+ * Para cada jugador el tablero se modela como una red de resistencias: cada casilla es un
+ * nodo con resistencia {@link #EMPTY_RESISTANCE} si está vacía y {@link #OWN_RESISTANCE}
+ * si es propia, y las casillas del rival se quitan de la red. Dos casillas vecinas se unen
+ * con conductancia {@code 1 / (r_a + r_b)} y las casillas de cada lado se unen con el
+ * terminal de ese lado con conductancia {@code 1 / r}. Con el primer lado a potencial 1 y
+ * el último a 0, la corriente que sale del primero es la inversa de la resistencia total.
+ * <p>
+ * Los potenciales se obtienen resolviendo el sistema lineal de la red (la laplaciana
+ * reducida) con gradiente conjugado precondicionado con la diagonal (Jacobi). La matriz
+ * se guarda en formato CSR con la estructura de vecinos del tablero, que no cambia: en cada
+ * evaluación solo se reescriben los valores. Las casillas del rival quedan como filas
+ * identidad con término independiente 0. Cada nodo tiene además una fuga
+ * {@link #LEAK} a tierra para que el sistema sea definido positivo aunque haya grupos de
+ * casillas aislados de los dos lados.
+ * <p>
+ * La resolución empieza desde los potenciales de la última evaluación del mismo jugador.
+ * En la búsqueda las hojas consecutivas son hermanas, que difieren del padre en una ficha,
+ * así que el gradiente conjugado converge en pocas iteraciones.
+ * <p>
+ * La evaluación es {@code SCALE * ln(R_rival / R_propia)}. El logaritmo hace que cambiar
+ * el punto de vista solo cambie el signo.
+ * <p>
+ * Todos los arrays se reservan en el constructor. Las instancias no son seguras entre hilos.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class Resistance {
+    /**
+     * Resistencia de una casilla vacía.
+     */
+    public static final double EMPTY_RESISTANCE = 1.0;
+    /**
+     * Resistencia de una casilla propia. No es 0 para que la matriz no quede mal condicionada.
+     */
+    public static final double OWN_RESISTANCE = 0.02;
+    /**
+     * Conductancia de cada nodo a tierra.
+     */
+    private static final double LEAK = 1e-6;
+    /**
+     * Factor de escala de la evaluación.
+     */
+    public static final int SCALE = 1000;
+    /**
+     * Evaluación máxima en valor absoluto. Es menor que la de las posiciones terminales.
+     */
+    public static final int MAX_SCORE = 100000;
+    /**
+     * Tolerancia relativa del residuo del gradiente conjugado.
+     */
+    private static final double TOLERANCE = 1e-5;
+
+    private final int size;
+    private final int n;
+
+    // Matriz en formato CSR: la estructura es fija, los valores cambian en cada evaluación
+    private final int[] rowPtr;
+    private final int[] colIdx;
+    private final double[] values;
+    private final double[] diag;
+
+    private final double[] resistance;
+    private final double[] source;
+    private final double[][] potentials;
+    private final double[] rhs;
+    private final double[] r;
+    private final double[] z;
+    private final double[] p;
+    private final double[] ap;
+
+    private int iterations;
+
+    /**
+     * Constructor de la clase {@link Resistance}.
+     * @param boardSize El tamaño del tablero.
+     */
+    public Resistance(int boardSize) {
+        this.size = boardSize;
+        this.n    = boardSize * boardSize;
+        this.rowPtr = new int[n + 1];
+        int[][] neigh = Utils.neighbours(size);
+        int[] cols = new int[6 * n];
+        int k = 0;
+        for (int c = 0; c < n; ++c) {
+            rowPtr[c] = k;
+            for (int nb : neigh[c])
+                cols[k++] = nb;
+        }
+        rowPtr[n] = k;
+        this.colIdx = Arrays.copyOf(cols, k);
+        this.values = new double[k];
+        this.diag   = new double[n];
+
+        this.resistance = new double[n];
+        this.source     = new double[n];
+        this.rhs        = new double[n];
+        this.r          = new double[n];
+        this.z          = new double[n];
+        this.p          = new double[n];
+        this.ap         = new double[n];
+        this.potentials = new double[2][n];
+        // Punto de partida: potencial que baja linealmente de un lado al otro
+        for (int c = 0; c < n; ++c) {
+            potentials[0][c] = 1.0 - (double)(c / size) / (size - 1);
+            potentials[1][c] = 1.0 - (double)(c % size) / (size - 1);
+        }
+    }
+
+    /**
+     * Retorna el tamaño del tablero para el que se ha creado la instancia.
+     * @return El tamaño del tablero.
+     */
+    public int getBoardSize() {
+        return size;
+    }
+
+    /**
+     * Retorna la evaluación del tablero desde el punto de vista de {@code player}.
+     * <p>
+     * Tiene la misma forma que el resto de heurísticas para poder usarse en los mismos
+     * sitios. La evaluación no depende de la última ficha jugada.
+     * @param board      El tablero del juego.
+     * @param player     El jugador desde cuyo punto de vista se evalúa.
+     * @param lastPlayed La última ficha jugada. No se usa.
+     * @return           Positivo si {@code player} tiene menos resistencia que el rival.
+     */
+    public int heuristic(HexGameStatus board, PlayerType player, Point lastPlayed) {
+        return evaluate(new SearchBoard(board), player);
+    }
+
+    /**
+     * Evalúa el tablero desde el punto de vista de {@code player}.
+     * @param board  El tablero de búsqueda.
+     * @param player El jugador desde cuyo punto de vista se evalúa.
+     * @return       {@code SCALE * ln(R_rival / R_propia)}, acotado a {@link #MAX_SCORE}.
+     */
+    public int evaluate(SearchBoard board, PlayerType player) {
+        int color = PlayerType.getColor(player);
+        double mine   = conductance(board.bits(), color);
+        double theirs = conductance(board.bits(), -color);
+        // R_rival / R_propia = G_propia / G_rival
+        if (theirs <= 0)
+            return mine <= 0 ? 0 : MAX_SCORE;
+        if (mine <= 0)
+            return -MAX_SCORE;
+        double score = SCALE * Math.log(mine / theirs);
+        return (int)Math.max(-MAX_SCORE, Math.min(MAX_SCORE, Math.round(score)));
+    }
+
+    /**
+     * Calcula la conductancia entre los dos lados de un jugador, la inversa de su resistencia.
+     * @param bits  Las fichas del tablero.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @return      La conductancia, o {@code 0} si el rival ya ha cortado los dos lados.
+     */
+    public double conductance(BitBoard bits, int color) {
+        double[] x = potentials[color == 1 ? 0 : 1];
+        double bNorm = build(bits, color, x);
+        if (bNorm == 0) {
+            iterations = 0;
+            return 0;
+        }
+        solve(x, bNorm);
+        double current = 0;
+        for (int c = 0; c < n; ++c) {
+            if (source[c] != 0)
+                current += source[c] * (1.0 - x[c]);
+        }
+        return Math.max(0, current);
+    }
+
+    /**
+     * Retorna las iteraciones del gradiente conjugado en la última resolución.
+     * @return Número de iteraciones.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Escribe los valores de la matriz y el término independiente para un jugador.
+     * Las casillas del rival ya tienen su solución (potencial 0) y se fijan en {@code x}.
+     * @return La norma del término independiente al cuadrado.
+     */
+    private double build(BitBoard bits, int color, double[] x) {
+        for (int c = 0; c < n; ++c) {
+            int v = bits.get(c);
+            resistance[c] = v == 0 ? EMPTY_RESISTANCE : v == color ? OWN_RESISTANCE : 0;
+        }
+        double bNorm = 0;
+        for (int c = 0; c < n; ++c) {
+            double rc = resistance[c];
+            source[c] = 0;
+            if (rc == 0) {
+                // Casilla del rival: fila identidad, potencial 0
+                for (int k = rowPtr[c]; k < rowPtr[c + 1]; ++k)
+                    values[k] = 0;
+                diag[c] = 1;
+                rhs[c]  = 0;
+                x[c]    = 0;
+                continue;
+            }
+            double d = LEAK;
+            for (int k = rowPtr[c]; k < rowPtr[c + 1]; ++k) {
+                double rn = resistance[colIdx[k]];
+                double g  = rn == 0 ? 0 : 1.0 / (rc + rn);
+                values[k] = -g;
+                d += g;
+            }
+            int coord = color == 1 ? c / size : c % size;
+            if (coord == 0) {
+                source[c] = 1.0 / rc;
+                d += source[c];
+            }
+            if (coord == size - 1)
+                d += 1.0 / rc;
+            diag[c] = d;
+            rhs[c]  = source[c];
+            bNorm  += rhs[c] * rhs[c];
+        }
+        return bNorm;
+    }
+
+    /**
+     * Resuelve {@code A x = rhs} con gradiente conjugado precondicionado con la diagonal,
+     * empezando desde el valor actual de {@code x}.
+     */
+    private void solve(double[] x, double bNorm) {
+        multiply(x, ap);
+        double rz = 0, rr = 0;
+        for (int c = 0; c < n; ++c) {
+            r[c] = rhs[c] - ap[c];
+            z[c] = r[c] / diag[c];
+            p[c] = z[c];
+            rz  += r[c] * z[c];
+            rr  += r[c] * r[c];
+        }
+        double limit = TOLERANCE * TOLERANCE * bNorm;
+        int it = 0;
+        while (rr > limit && it < 2 * n) {
+            multiply(p, ap);
+            double pAp = 0;
+            for (int c = 0; c < n; ++c)
+                pAp += p[c] * ap[c];
+            double alpha = rz / pAp;
+            double rzNew = 0;
+            rr = 0;
+            for (int c = 0; c < n; ++c) {
+                x[c] += alpha * p[c];
+                r[c] -= alpha * ap[c];
+                z[c]  = r[c] / diag[c];
+                rzNew += r[c] * z[c];
+                rr    += r[c] * r[c];
+            }
+            double beta = rzNew / rz;
+            rz = rzNew;
+            for (int c = 0; c < n; ++c)
+                p[c] = z[c] + beta * p[c];
+            ++it;
+        }
+        iterations = it;
+    }
+
+    /**
+     * Calcula {@code out = A v}.
+     */
+    private void multiply(double[] v, double[] out) {
+        for (int c = 0; c < n; ++c) {
+            double s = diag[c] * v[c];
+            for (int k = rowPtr[c]; k < rowPtr[c + 1]; ++k)
+                s += values[k] * v[colIdx[k]];
+            out[c] = s;
+        }
+    }
+}
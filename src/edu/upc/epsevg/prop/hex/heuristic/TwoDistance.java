@@ -0,0 +1,288 @@
+package edu.upc.epsevg.prop.hex.heuristic;
+
+import edu.upc.epsevg.prop.hex.*;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Evaluación con la métrica de dos distancias (two-distance) de Queenbee.
+ * <p>
+ * Para cada jugador y cada uno de sus dos lados se calcula la dos-distancia de cada
+ * casilla vacía: las casillas que tocan el lado valen 1 y el resto vale la segunda menor
+ * distancia entre sus vecinos más uno. Tomar la segunda menor en lugar de la menor tiene
+ * en cuenta que el rival siempre puede bloquear el mejor vecino. Las fichas propias no
+ * cuestan nada: todas las casillas vacías adyacentes a un mismo grupo propio se
+ * consideran vecinas entre sí. Las casillas del rival no se pueden atravesar.
+ * <p>
+ * El potencial de un jugador es la menor suma de las dos distancias (a un lado y al
+ * otro) sobre todas las casillas vacías. La evaluación es la diferencia entre el
+ * potencial del rival y el propio y, en caso de empate, el número de casillas que
+ * alcanzan el potencial (más casillas significa más alternativas).
+ * <p>
+ * Todo se calcula con arrays de tipos primitivos y los bitsets del {@link BitBoard}, sin
+ * crear objetos en cada llamada. Las instancias no son seguras entre hilos.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class TwoDistance {
+    /**
+     * Peso de una unidad de potencial respecto a una casilla que lo alcanza.
+     */
+    private static final int POTENTIAL_WEIGHT = 100;
+
+    private final int size;
+    private final int cells;
+    private final int potentialInf;
+
+    private final int[] distStart;
+    private final int[] distEnd;
+    private final int[] count;
+    private final int[] queue;
+    private final int[] group;
+    private final int[] stack;
+    private final long[][] groupAdj;
+    private final boolean[] groupStart;
+    private final boolean[] groupEnd;
+    private final long[] empty;
+    private final long[] around;
+
+    private int groups;
+    private int minCount;
+
+    /**
+     * Constructor de la clase {@link TwoDistance}.
+     * @param boardSize El tamaño del tablero.
+     */
+    public TwoDistance(int boardSize) {
+        this.size  = boardSize;
+        this.cells = boardSize * boardSize;
+        // Las dos distancias de una casilla nunca pasan de cells cada una
+        this.potentialInf = 2 * cells + 2;
+        int words = new BitBoard(boardSize).words();
+        this.distStart  = new int[cells];
+        this.distEnd    = new int[cells];
+        this.count      = new int[cells];
+        this.queue      = new int[cells];
+        this.group      = new int[cells];
+        this.stack      = new int[cells];
+        this.groupAdj   = new long[cells][words];
+        this.groupStart = new boolean[cells];
+        this.groupEnd   = new boolean[cells];
+        this.empty      = new long[words];
+        this.around     = new long[words];
+    }
+
+    /**
+     * Retorna el tamaño del tablero para el que se ha creado la instancia.
+     * @return El tamaño del tablero.
+     */
+    public int getBoardSize() {
+        return size;
+    }
+
+    /**
+     * Retorna la evaluación del tablero desde el punto de vista de {@code player}.
+     * <p>
+     * Tiene la misma forma que el resto de heurísticas para poder usarse en los mismos
+     * sitios. La evaluación no depende de la última ficha jugada.
+     * @param board      El tablero del juego.
+     * @param player     El jugador desde cuyo punto de vista se evalúa.
+     * @param lastPlayed La última ficha jugada. No se usa.
+     * @return           Positivo si {@code player} va mejor que el rival.
+     */
+    public int heuristic(HexGameStatus board, PlayerType player, Point lastPlayed) {
+        return evaluate(new SearchBoard(board), player);
+    }
+
+    /**
+     * Igual que {@link #heuristic(HexGameStatus, PlayerType, Point)} sobre el tablero de búsqueda.
+     * @param board      El tablero de búsqueda.
+     * @param player     El jugador desde cuyo punto de vista se evalúa.
+     * @param lastPlayed La última ficha jugada. No se usa.
+     * @return           Positivo si {@code player} va mejor que el rival.
+     */
+    public int heuristic(SearchBoard board, PlayerType player, Point lastPlayed) {
+        return evaluate(board, player);
+    }
+
+    /**
+     * Evalúa el tablero desde el punto de vista de {@code player}.
+     * @param board  El tablero de búsqueda.
+     * @param player El jugador desde cuyo punto de vista se evalúa.
+     * @return       {@code 100 * (potencial rival - potencial propio)} más la diferencia
+     *               de casillas que alcanzan cada potencial.
+     */
+    public int evaluate(SearchBoard board, PlayerType player) {
+        int color = PlayerType.getColor(player);
+        int mine = potential(board, color);
+        int mineCount = minCount;
+        int theirs = potential(board, -color);
+        int theirCount = minCount;
+        return POTENTIAL_WEIGHT * (theirs - mine) + (mineCount - theirCount);
+    }
+
+    /**
+     * Calcula el potencial de un jugador: la menor suma de dos distancias a sus dos lados.
+     * @param board El tablero de búsqueda.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @return      El potencial, o {@code 2 * size * size + 2} si no puede unir sus lados.
+     */
+    public int potential(SearchBoard board, int color) {
+        BitBoard bits = board.bits();
+        bits.empty(empty);
+        buildGroups(board, color);
+        twoDistance(board, color, true, distStart);
+        twoDistance(board, color, false, distEnd);
+
+        int best = potentialInf;
+        minCount = 0;
+        for (int c = 0; c < cells; ++c) {
+            if (distStart[c] >= cells || distEnd[c] >= cells)
+                continue;
+            int p = distStart[c] + distEnd[c];
+            if (p < best) {
+                best = p;
+                minCount = 1;
+            } else if (p == best) {
+                ++minCount;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Agrupa las fichas de {@code color} en grupos conexos y guarda para cada grupo las
+     * casillas vacías adyacentes y los lados que toca.
+     */
+    private void buildGroups(SearchBoard board, int color) {
+        BitBoard bits = board.bits();
+        long[] own = bits.stones(color);
+        int words = empty.length;
+        Arrays.fill(group, -1);
+        groups = 0;
+        for (int w = 0; w < words; ++w) {
+            long pending = own[w];
+            while (pending != 0) {
+                int c = (w << 6) + Long.numberOfTrailingZeros(pending);
+                pending &= pending - 1;
+                if (group[c] >= 0)
+                    continue;
+                int g = groups++;
+                long[] adj = groupAdj[g];
+                Arrays.fill(adj, 0);
+                groupStart[g] = false;
+                groupEnd[g] = false;
+                int top = 0;
+                stack[top++] = c;
+                group[c] = g;
+                while (top > 0) {
+                    int s = stack[--top];
+                    int coord = color == 1 ? s / size : s % size;
+                    if (coord == 0)
+                        groupStart[g] = true;
+                    if (coord == size - 1)
+                        groupEnd[g] = true;
+                    long[] nb = bits.neighbourMask(s);
+                    for (int i = 0; i < words; ++i)
+                        adj[i] |= nb[i] & empty[i];
+                    for (int v : board.neighbours(s)) {
+                        if (group[v] < 0 && bits.get(v) == color) {
+                            group[v] = g;
+                            stack[top++] = v;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calcula la dos-distancia de las casillas vacías hasta uno de los lados del jugador.
+     * <p>
+     * Es un recorrido en anchura: las casillas se cierran en orden creciente de distancia
+     * y una casilla recibe la distancia {@code k + 1} cuando se cierra su segundo vecino,
+     * que es el de segunda menor distancia {@code k}.
+     * @param board El tablero de búsqueda.
+     * @param color Color del jugador.
+     * @param start {@code true} para el primer lado, {@code false} para el último.
+     * @param dist  Array donde se escriben las distancias; {@code cells} si no se llega.
+     */
+    private void twoDistance(SearchBoard board, int color, boolean start, int[] dist) {
+        int side = start ? 0 : size - 1;
+        Arrays.fill(dist, cells);
+        Arrays.fill(count, 0);
+        int head = 0, tail = 0;
+
+        // Las casillas vacías que tocan el lado, directamente o a través de un grupo propio
+        for (int c = 0; c < cells; ++c) {
+            if (!isEmpty(c))
+                continue;
+            int coord = color == 1 ? c / size : c % size;
+            if (coord == side) {
+                dist[c] = 1;
+                queue[tail++] = c;
+            }
+        }
+        for (int g = 0; g < groups; ++g) {
+            if (start ? groupStart[g] : groupEnd[g]) {
+                long[] adj = groupAdj[g];
+                for (int w = 0; w < adj.length; ++w) {
+                    long bits = adj[w];
+                    while (bits != 0) {
+                        int c = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        if (dist[c] != 1) {
+                            dist[c] = 1;
+                            queue[tail++] = c;
+                        }
+                    }
+                }
+            }
+        }
+
+        while (head < tail) {
+            int u = queue[head++];
+            int next = dist[u] + 1;
+            neighbourhood(board, color, u);
+            for (int w = 0; w < around.length; ++w) {
+                long bits = around[w];
+                while (bits != 0) {
+                    int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (dist[v] < cells)
+                        continue;
+                    if (++count[v] == 2) {
+                        dist[v] = next;
+                        queue[tail++] = v;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calcula en {@code around} las casillas vacías vecinas de {@code u}: las adyacentes y
+     * las adyacentes a los grupos propios que tocan {@code u}.
+     */
+    private void neighbourhood(SearchBoard board, int color, int u) {
+        BitBoard bits = board.bits();
+        long[] nb = bits.neighbourMask(u);
+        for (int w = 0; w < around.length; ++w)
+            around[w] = nb[w] & empty[w];
+        for (int v : board.neighbours(u)) {
+            int g = group[v];
+            if (g >= 0 && bits.get(v) == color) {
+                long[] adj = groupAdj[g];
+                for (int w = 0; w < around.length; ++w)
+                    around[w] |= adj[w];
+            }
+        }
+        around[u >>> 6] &= ~(1L << u);
+    }
+
+    private boolean isEmpty(int c) {
+        return (empty[c >>> 6] & (1L << c)) != 0;
+    }
+}
@@ -0,0 +1,355 @@
+package edu.upc.epsevg.prop.hex.heuristic;
+
+import edu.upc.epsevg.prop.hex.*;
+
+import java.util.Arrays;
+
+/**
+ * Conexiones virtuales de cada jugador: puentes entre fichas propias y plantillas de borde,
+ * al estilo de la H-search.
+ * <p>
+ * Dos fichas están virtualmente conectadas si el rival no puede separarlas aunque juegue
+ * primero. Se reconocen las conexiones de nivel más bajo:
+ * <ul>
+ *   <li>Puente: dos fichas propias con exactamente dos vecinos comunes vacíos (el
+ *       portador). Si el rival ocupa uno, se responde en el otro.</li>
+ *   <li>Plantilla II: una ficha en la segunda fila de su lado con las dos casillas vecinas
+ *       de la primera fila vacías.</li>
+ *   <li>Plantilla IIIa (zigurat): una ficha en la tercera fila con sus ocho casillas de
+ *       portador vacías, en cualquiera de sus dos orientaciones.</li>
+ * </ul>
+ * No se comprueba si dos conexiones comparten portador, así que en ese caso solo una de
+ * ellas se mantiene de verdad. Por eso {@link Dijkstra} las trata como aristas de coste
+ * bajo y no nulo.
+ * <p>
+ * Los puentes y plantillas posibles de cada casilla se calculan una vez por tamaño de
+ * tablero. Al colocar o retirar una ficha solo se recalculan las casillas cuya conexión
+ * depende de ella: sus vecinos, sus compañeros de puente y las fichas de las plantillas que
+ * la tienen en el portador. Se conecta al tablero con
+ * {@link SearchBoard#setListener(SearchBoard.Listener)}; sin receptor, basta con llamar a
+ * {@link #reset(SearchBoard)} antes de consultar. Las instancias no son seguras entre hilos.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class VirtualConnections implements SearchBoard.Listener {
+    /**
+     * Bit de {@link #edges(int, int)} para el primer lado del jugador.
+     */
+    public static final int START = 1;
+    /**
+     * Bit de {@link #edges(int, int)} para el último lado del jugador.
+     */
+    public static final int END = 2;
+
+    // Plantillas del primer lado del jugador 1 como (filas hacia el lado, columnas) desde la ficha
+    private static final int[][] TEMPLATE_II = {{-1, 0}, {-1, 1}};
+    private static final int[][][] ZIGGURAT = {
+        {{0, 1}, {-1, 0}, {-1, 1}, {-1, 2}, {-2, 0}, {-2, 1}, {-2, 2}, {-2, 3}},
+        {{0, -1}, {-1, -1}, {-1, 0}, {-1, 1}, {-2, -1}, {-2, 0}, {-2, 1}, {-2, 2}}
+    };
+
+    private static final Tables[] TABLES = new Tables[BitBoard.MAX_SIZE + 1];
+
+    private final Tables tables;
+    private final int n;
+    private final int[][] bridges;
+    private final int[][] edges;
+
+    /**
+     * Calcula las conexiones de la posición actual de {@code board}.
+     * @param board El tablero de búsqueda.
+     */
+    public VirtualConnections(SearchBoard board) {
+        this(board.getSize());
+        reset(board);
+    }
+
+    /**
+     * Crea las conexiones de un tablero vacío, para llamar después a {@link #reset(SearchBoard)}.
+     * @param boardSize El tamaño del tablero.
+     */
+    public VirtualConnections(int boardSize) {
+        this.tables  = tables(boardSize);
+        this.n       = boardSize * boardSize;
+        this.bridges = new int[2][n];
+        this.edges   = new int[2][n];
+    }
+
+    /**
+     * Recalcula desde cero las conexiones de {@code board}.
+     * @param board El tablero de búsqueda.
+     */
+    public void reset(SearchBoard board) {
+        for (int c = 0; c < n; ++c) {
+            update(board, c);
+        }
+    }
+
+    /**
+     * Retorna los compañeros de puente posibles de una casilla. El bit {@code k} de
+     * {@link #bridges(int, int)} se refiere a la posición {@code k} de este array.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     Las casillas a distancia de puente. No se debe modificar.
+     */
+    public int[] partners(int cell) {
+        return tables.partner[cell];
+    }
+
+    /**
+     * Retorna los portadores de los puentes posibles de una casilla: las dos casillas del
+     * puente con el compañero {@code k} de {@link #partners(int)} están en las posiciones
+     * {@code 2k} y {@code 2k + 1}.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @return     Las casillas de los portadores. No se debe modificar.
+     */
+    public int[] carriers(int cell) {
+        return tables.carrier[cell];
+    }
+
+    /**
+     * Retorna los puentes de una ficha.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @return      Máscara con un bit por compañero de {@link #partners(int)}, o {@code 0}
+     *              si la casilla no es una ficha de {@code color}.
+     */
+    public int bridges(int color, int cell) {
+        return bridges[index(color)][cell];
+    }
+
+    /**
+     * Retorna los lados con los que una ficha está conectada por una plantilla.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @return      Combinación de {@link #START} y {@link #END}, o {@code 0}.
+     */
+    public int edges(int color, int cell) {
+        return edges[index(color)][cell];
+    }
+
+    /**
+     * Cuenta los puentes de un jugador.
+     * @param color Color del jugador ({@code 1} o {@code -1}).
+     * @return      El número de pares de fichas unidas por un puente.
+     */
+    public int countBridges(int color) {
+        int[] b = bridges[index(color)];
+        int count = 0;
+        for (int c = 0; c < n; ++c) {
+            count += Integer.bitCount(b[c]);
+        }
+        return count / 2;
+    }
+
+    @Override
+    public void placed(SearchBoard board, int cell, int color) {
+        changed(board, cell);
+    }
+
+    @Override
+    public void removed(SearchBoard board, int cell, int color) {
+        changed(board, cell);
+    }
+
+    private void changed(SearchBoard board, int cell) {
+        update(board, cell);
+        for (int c : tables.dependents[cell]) {
+            update(board, c);
+        }
+    }
+
+    /**
+     * Recalcula los puentes y plantillas de una casilla para los dos jugadores.
+     */
+    private void update(SearchBoard board, int cell) {
+        int color = board.getPos(cell);
+        for (int i = 0; i < 2; ++i) {
+            bridges[i][cell] = 0;
+            edges[i][cell]   = 0;
+        }
+        if (color == 0) {
+            return;
+        }
+        int i = index(color);
+        int[] partner = tables.partner[cell];
+        int mask = 0;
+        for (int k = 0; k < partner.length; ++k) {
+            if (board.getPos(partner[k]) == color
+                    && board.getPos(tables.carrier[cell][2 * k]) == 0
+                    && board.getPos(tables.carrier[cell][2 * k + 1]) == 0) {
+                mask |= 1 << k;
+            }
+        }
+        bridges[i][cell] = mask;
+
+        int sides = 0;
+        for (int side = 0; side < 2; ++side) {
+            for (int[] carrier : tables.templates[i][side][cell]) {
+                if (allEmpty(board, carrier)) {
+                    sides |= side == 0 ? START : END;
+                    break;
+                }
+            }
+        }
+        edges[i][cell] = sides;
+    }
+
+    private static boolean allEmpty(SearchBoard board, int[] cells) {
+        for (int c : cells) {
+            if (board.getPos(c) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int index(int color) {
+        return color == 1 ? 0 : 1;
+    }
+
+    /**
+     * Retorna las tablas de un tamaño de tablero, que se calculan una sola vez.
+     */
+    private static synchronized Tables tables(int size) {
+        if (TABLES[size] == null) {
+            TABLES[size] = new Tables(size);
+        }
+        return TABLES[size];
+    }
+
+    /**
+     * Puentes y plantillas posibles de cada casilla, y qué casillas dependen de cada una.
+     */
+    private static final class Tables {
+        final int[][] partner;
+        // Las dos casillas del portador del puente k están en 2k y 2k+1
+        final int[][] carrier;
+        // Portadores de las plantillas por jugador, lado y casilla de la ficha
+        final int[][][][][] templates;
+        final int[][] dependents;
+
+        Tables(int size) {
+            int n = size * size;
+            int[][] neigh = Utils.neighbours(size);
+            partner = new int[n][];
+            carrier = new int[n][];
+            for (int c = 0; c < n; ++c) {
+                int[] p = new int[6];
+                int[] cr = new int[12];
+                int k = 0;
+                for (int a : neigh[c]) {
+                    for (int b : neigh[a]) {
+                        if (b == c || contains(neigh[c], b) || contains(p, k, b)) {
+                            continue;
+                        }
+                        int[] common = new int[2];
+                        int m = 0;
+                        for (int x : neigh[c]) {
+                            if (contains(neigh[b], x) && m < 2) {
+                                common[m++] = x;
+                            }
+                        }
+                        if (m == 2) {
+                            p[k] = b;
+                            cr[2 * k]     = common[0];
+                            cr[2 * k + 1] = common[1];
+                            ++k;
+                        }
+                    }
+                }
+                partner[c] = Arrays.copyOf(p, k);
+                carrier[c] = Arrays.copyOf(cr, 2 * k);
+            }
+
+            templates = new int[2][2][n][][];
+            for (int i = 0; i < 2; ++i) {
+                for (int side = 0; side < 2; ++side) {
+                    for (int c = 0; c < n; ++c) {
+                        templates[i][side][c] = templates(size, c, i, side);
+                    }
+                }
+            }
+
+            // Casillas cuya conexión puede cambiar al cambiar cada casilla
+            boolean[][] dep = new boolean[n][n];
+            for (int s = 0; s < n; ++s) {
+                for (int k = 0; k < partner[s].length; ++k) {
+                    dep[partner[s][k]][s]         = true;
+                    dep[carrier[s][2 * k]][s]     = true;
+                    dep[carrier[s][2 * k + 1]][s] = true;
+                }
+                for (int i = 0; i < 2; ++i) {
+                    for (int side = 0; side < 2; ++side) {
+                        for (int[] t : templates[i][side][s]) {
+                            for (int c : t) {
+                                dep[c][s] = true;
+                            }
+                        }
+                    }
+                }
+            }
+            dependents = new int[n][];
+            for (int c = 0; c < n; ++c) {
+                int[] tmp = new int[n];
+                int k = 0;
+                for (int s = 0; s < n; ++s) {
+                    if (dep[c][s] && s != c) {
+                        tmp[k++] = s;
+                    }
+                }
+                dependents[c] = Arrays.copyOf(tmp, k);
+            }
+        }
+
+        /**
+         * Portadores de las plantillas de la ficha {@code c} hacia un lado de un jugador.
+         * Las plantillas se definen para el primer lado del jugador 1; el último lado se
+         * obtiene girando el tablero 180 grados y el jugador 2 trasponiéndolo.
+         */
+        private static int[][] templates(int size, int c, int player, int side) {
+            int x = c / size, y = c % size;
+            int row = player == 0 ? x : y;
+            if (side == 1) {
+                row = size - 1 - row;
+            }
+            int[][][] shapes = row == 1 ? new int[][][] {TEMPLATE_II}
+                             : row == 2 ? ZIGGURAT
+                             : new int[0][][];
+            int[][] out = new int[shapes.length][];
+            int k = 0;
+            for (int[][] shape : shapes) {
+                int[] cells = new int[shape.length];
+                boolean inside = true;
+                for (int j = 0; j < shape.length && inside; ++j) {
+                    int a = shape[j][0], b = shape[j][1];
+                    if (side == 1) {
+                        a = -a;
+                        b = -b;
+                    }
+                    int nx = x + (player == 0 ? a : b);
+                    int ny = y + (player == 0 ? b : a);
+                    inside = nx >= 0 && ny >= 0 && nx < size && ny < size;
+                    cells[j] = nx * size + ny;
+                }
+                if (inside) {
+                    out[k++] = cells;
+                }
+            }
+            return Arrays.copyOf(out, k);
+        }
+
+        private static boolean contains(int[] a, int v) {
+            return contains(a, a.length, v);
+        }
+
+        private static boolean contains(int[] a, int len, int v) {
+            for (int i = 0; i < len; ++i) {
+                if (a[i] == v) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
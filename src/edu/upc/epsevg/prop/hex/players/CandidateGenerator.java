@@ -0,0 +1,35 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import edu.upc.epsevg.prop.hex.SearchBoard;
+
+/**
+ * Generador de movimientos candidatos para la poda hacia delante.
+ * <p>
+ * En cada nodo, antes de ordenar los movimientos con {@link MoveOrdering}, la búsqueda le
+ * pasa la lista de movimientos al generador, que la reordena y decide cuántos se buscan.
+ * Los que quedan fuera no se exploran, así que el resultado de la búsqueda deja de ser
+ * exacto a cambio de poder llegar más hondo.
+ * <p>
+ * Cada hilo de búsqueda tiene su propio generador, así que las implementaciones no tienen
+ * por qué ser seguras entre hilos.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ *
+ * @see PathCandidates
+ */
+public interface CandidateGenerator {
+    /**
+     * Escoge los movimientos que se buscan en un nodo.
+     * @param board    El tablero del nodo.
+     * @param moves    Movimientos como índice {@code x * size + y}. Los escogidos se dejan al
+     *                 principio del array.
+     * @param count    Número de movimientos en {@code moves}.
+     * @param ply      Nivel del nodo respecto a la raíz.
+     * @param keep     Movimiento que se ha de buscar siempre (el de la tabla de
+     *                 transposiciones o la variante principal), o {@code -1}.
+     * @param ordering La ordenación de movimientos de la búsqueda, con la tabla de historia.
+     * @return         El número de movimientos que se buscan.
+     */
+    int select(SearchBoard board, int[] moves, int count, int ply, int keep, MoveOrdering ordering);
+}
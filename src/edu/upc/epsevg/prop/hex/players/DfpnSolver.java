@@ -0,0 +1,435 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import edu.upc.epsevg.prop.hex.*;
+import edu.upc.epsevg.prop.hex.heuristic.Dijkstra;
+import edu.upc.epsevg.prop.hex.heuristic.InferiorCells;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Resolutor de posiciones de Hex con búsqueda en profundidad por números de prueba (df-pn).
+ * <p>
+ * A diferencia de la búsqueda alpha-beta, que solo compara valores heurísticos, df-pn
+ * demuestra quién gana: cada nodo tiene un número de prueba ({@code phi}, las hojas que
+ * faltan por demostrar para ver que gana el jugador que mueve) y uno de refutación
+ * ({@code delta}, las que faltan para ver que pierde). El nodo gana si algún hijo pierde y
+ * pierde si todos los hijos ganan, así que {@code phi} es el mínimo de los {@code delta} de
+ * los hijos y {@code delta} la suma de sus {@code phi}. La búsqueda baja siempre por el
+ * hijo más prometedor y solo vuelve a subir cuando sus números superan los umbrales del
+ * padre, con el truco 1+ε para no saltar continuamente entre dos hermanos. En Hex no hay
+ * empates ni ciclos, así que toda posición acaba demostrada o refutada.
+ * <p>
+ * Los números se guardan en una tabla de transposiciones propia, que se mantiene entre
+ * llamadas a {@link #solve(HexGameStatus)}: las posiciones ya demostradas en jugadas
+ * anteriores no se vuelven a buscar. En cada nodo se buscan primero las victorias
+ * inmediatas de los dos jugadores: si el rival puede ganar en una casilla solo se considera
+ * taparla, y si puede ganar en dos la posición está perdida. Si no hay amenazas se quitan
+ * las casillas muertas y capturadas ({@link InferiorCells}), que no cambian el resultado.
+ * Los hijos empiezan con números según las casillas vacías que le faltan a cada jugador en
+ * su camino más corto ({@link Dijkstra}), en lugar de {@code 1}.
+ * <p>
+ * La búsqueda se puede limitar por nodos ({@link #setNodeLimit(long)}), por tiempo
+ * ({@link #setTimeLimit(long)}) o detener desde otro hilo con {@link #stop()}. Si se acaba
+ * el presupuesto antes de demostrar nada, el resultado es desconocido.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class DfpnSolver {
+    /**
+     * Número de prueba o refutación infinito: la posición está decidida.
+     */
+    public static final int INF = Integer.MAX_VALUE;
+
+    /**
+     * Tamaño por defecto de la tabla de transposiciones en megabytes.
+     */
+    public static final int DEFAULT_TT_MB = 32;
+
+    private static final int ENTRY_BYTES = 24;
+    private static final long SIDE = 0x2545F4914F6CDD1DL;
+    // Trabajo de las entradas que solo tienen los números iniciales y no se han expandido
+    private static final long INIT_WORK = 1;
+
+    private final long[] keys;
+    private final int[] phis;
+    private final int[] deltas;
+    private final long[] works;
+    private final int mask;
+
+    private long nodeLimit;
+    private long timeLimit;
+    private long deadline;
+    private volatile boolean stopped;
+
+    private int boardSize;
+    private SearchBoard board;
+    private InferiorCells inferior;
+    private Dijkstra dijkstra;
+    private int[] path;
+    private int[] ownMark, oppMark;
+    private int stamp;
+    private long[][] stoneKeys;
+    private int[][] moveBuf;
+    private long nodes;
+    private int bestMove = -1;
+
+    /**
+     * Constructor de la clase {@link DfpnSolver} con una tabla de
+     * {@value #DEFAULT_TT_MB} megabytes.
+     */
+    public DfpnSolver() {
+        this(DEFAULT_TT_MB);
+    }
+
+    /**
+     * Constructor de la clase {@link DfpnSolver}.
+     * @param ttSize Memoria de la tabla de transposiciones en megabytes.
+     */
+    public DfpnSolver(int ttSize) {
+        long entries = Math.max(2, ((long)Math.max(1, ttSize) << 20) / ENTRY_BYTES);
+        int capacity = Integer.highestOneBit((int)Math.min(entries, 1 << 28));
+        this.keys   = new long[capacity];
+        this.phis   = new int[capacity];
+        this.deltas = new int[capacity];
+        this.works  = new long[capacity];
+        this.mask   = capacity - 1;
+    }
+
+    /**
+     * Limita el número de nodos expandidos en cada llamada a {@link #solve(HexGameStatus)}.
+     * @param nodes Número máximo de nodos. Con {@code 0} no hay límite.
+     */
+    public void setNodeLimit(long nodes) {
+        this.nodeLimit = nodes;
+    }
+
+    /**
+     * Limita el tiempo de cada llamada a {@link #solve(HexGameStatus)}.
+     * @param millis Tiempo máximo en milisegundos. Con {@code 0} no hay límite.
+     */
+    public void setTimeLimit(long millis) {
+        this.timeLimit = millis;
+    }
+
+    /**
+     * Detiene la búsqueda en curso, que retorna un resultado desconocido si todavía no
+     * había demostrado nada. Se puede llamar desde cualquier hilo. Si no hay ninguna
+     * búsqueda en curso no tiene efecto: cada llamada a {@link #solve(HexGameStatus)}
+     * empieza sin detener.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * Vacía la tabla de transposiciones.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(phis, 0);
+        Arrays.fill(deltas, 0);
+        Arrays.fill(works, 0);
+    }
+
+    /**
+     * Retorna el número de nodos expandidos en la última llamada a {@link #solve(HexGameStatus)}.
+     * @return El número de nodos.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Retorna la jugada ganadora encontrada por la última llamada a
+     * {@link #solve(HexGameStatus)}.
+     * @return La jugada, o {@code null} si no se ha demostrado que gana el jugador que mueve.
+     */
+    public Point getWinningMove() {
+        return bestMove < 0 ? null : Utils.toPoint(bestMove, boardSize);
+    }
+
+    /**
+     * Intenta resolver una posición dentro del presupuesto de nodos y de tiempo.
+     * @param s El estado del juego.
+     * @return  El jugador que gana con juego perfecto, o {@code null} si no se ha podido
+     *          demostrar. Si gana el jugador que mueve, la jugada ganadora está en
+     *          {@link #getWinningMove()}.
+     */
+    public PlayerType solve(HexGameStatus s) {
+        return solve(new SearchBoard(s));
+    }
+
+    /**
+     * Igual que {@link #solve(HexGameStatus)}, sobre un tablero de búsqueda. El tablero
+     * queda como estaba.
+     * @param t El tablero, sin {@link SearchBoard.Listener}.
+     * @return  El jugador que gana, o {@code null} si no se ha podido demostrar.
+     */
+    public PlayerType solve(SearchBoard t) {
+        this.stopped  = false;
+        this.nodes    = 0;
+        this.bestMove = -1;
+        this.deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : 0;
+        if (t.isGameOver()) {
+            return t.getWinner();
+        }
+        prepare(t);
+        mid(INF, INF, 0);
+
+        long entry = find(key());
+        PlayerType mover = t.getCurrentPlayer();
+        if (entry < 0) {
+            return null;
+        }
+        int i = (int)entry;
+        if (phis[i] == 0) {
+            this.bestMove = winningMove();
+            return mover;
+        }
+        if (deltas[i] == 0) {
+            return PlayerType.opposite(mover);
+        }
+        return null;
+    }
+
+    /**
+     * Prepara el estado de búsqueda para un tablero.
+     */
+    private void prepare(SearchBoard t) {
+        this.board = t;
+        int size = t.getSize();
+        if (size != boardSize) {
+            boardSize = size;
+            int n = size * size;
+            stoneKeys = new long[2][n];
+            for (int c = 0; c < n; ++c) {
+                stoneKeys[0][c] = Zobrist.key(c / size, c % size, 1);
+                stoneKeys[1][c] = Zobrist.key(c / size, c % size, -1);
+            }
+            inferior = new InferiorCells(size);
+            dijkstra = new Dijkstra(size);
+            path     = new int[n + 1];
+            ownMark  = new int[n];
+            oppMark  = new int[n];
+            stamp    = 0;
+            moveBuf  = new int[n + 1][];
+        }
+    }
+
+    /**
+     * Expande un nodo hasta que su {@code phi} llega a {@code thPhi} o su {@code delta}
+     * llega a {@code thDelta}, y guarda los números resultantes en la tabla.
+     * @param thPhi   Umbral del número de prueba.
+     * @param thDelta Umbral del número de refutación.
+     * @param ply     Nivel del nodo respecto a la raíz.
+     */
+    private void mid(int thPhi, int thDelta, int ply) {
+        ++nodes;
+        long key = key();
+        long workBefore = nodes;
+        int color = board.getCurrentColor();
+        int side  = color == 1 ? 0 : 1;
+        long entry = find(key);
+        if (entry >= 0 && (phis[(int)entry] == 0 || deltas[(int)entry] == 0)) {
+            return;
+        }
+        boolean known = entry >= 0 && works[(int)entry] > INIT_WORK;
+
+        // Victorias inmediatas. Si el rival amenaza con ganar en una casilla solo se puede
+        // tapar esa, y si amenaza en dos la posición está perdida
+        int[] moves = moves(ply);
+        int n = board.getMoves(moves);
+        int threat = -1, threats = 0;
+        for (int i = 0; i < n; ++i) {
+            int cell = moves[i];
+            if (board.isWinningMove(cell, color)) {
+                store(key, 0, INF, INIT_WORK + 1);
+                return;
+            }
+            if (threats < 2 && board.isWinningMove(cell, -color)) {
+                threat = cell;
+                ++threats;
+            }
+        }
+        if (threats >= 2) {
+            store(key, INF, 0, INIT_WORK + 1);
+            return;
+        }
+        if (threats == 1) {
+            moves[0] = threat;
+            n = 1;
+        } else {
+            n = inferior.prune(board, moves, n);
+        }
+
+        // La primera vez que se expande el nodo damos a los hijos números iniciales según
+        // lo que le falta a cada jugador para conectar: una ficha en el camino más corto
+        // propio lo acorta y una en el del rival lo alarga
+        if (!known) {
+            PlayerType mover = board.getCurrentPlayer();
+            ++stamp;
+            int own = distance(mover, ownMark);
+            int opp = distance(PlayerType.opposite(mover), oppMark);
+            for (int i = 0; i < n; ++i) {
+                int cell = moves[i];
+                long child = key ^ stoneKeys[side][cell] ^ SIDE;
+                if (find(child) < 0) {
+                    int childOwn = Math.max(1, ownMark[cell] == stamp ? own - 1 : own);
+                    int childOpp = oppMark[cell] == stamp ? opp + 1 : opp;
+                    store(child, childOpp, childOwn, INIT_WORK);
+                }
+            }
+        }
+
+        int phi = 0, delta = 0;
+        while (true) {
+            // phi = mínimo de los delta de los hijos, delta = suma de sus phi
+            int best = -1;
+            int bestDelta = INF, secondDelta = INF, bestPhi = 0;
+            long sum = 0;
+            for (int i = 0; i < n; ++i) {
+                long child = find(key ^ stoneKeys[side][moves[i]] ^ SIDE);
+                int cPhi   = child < 0 ? 1 : phis[(int)child];
+                int cDelta = child < 0 ? 1 : deltas[(int)child];
+                sum += cPhi;
+                if (cDelta < bestDelta) {
+                    secondDelta = bestDelta;
+                    bestDelta = cDelta;
+                    bestPhi = cPhi;
+                    best = i;
+                } else if (cDelta < secondDelta) {
+                    secondDelta = cDelta;
+                }
+            }
+            phi   = bestDelta;
+            delta = (int)Math.min(INF, sum);
+            if (phi >= thPhi || delta >= thDelta || isBudgetSpent()) {
+                break;
+            }
+            // Umbrales del hijo más prometedor, con el truco 1+ε sobre el segundo mejor
+            int childPhi   = saturate((long)thDelta - delta + bestPhi);
+            int childDelta = Math.min(thPhi, saturate(secondDelta + 1L + secondDelta / 4));
+            board.placeStone(moves[best]);
+            mid(childPhi, childDelta, ply + 1);
+            board.undo();
+        }
+        store(key, phi, delta, nodes - workBefore + INIT_WORK + 1);
+    }
+
+    /**
+     * Estima el número de casillas vacías que le faltan a un jugador para unir sus lados.
+     * @param player El jugador.
+     * @param mark   Se marcan con {@code stamp} las casillas vacías del camino más corto.
+     * @return       El número de casillas, como mínimo {@code 1}.
+     */
+    private int distance(PlayerType player, int[] mark) {
+        int len = dijkstra.edgePath(board, player, path);
+        int empty = 0;
+        for (int i = 0; i < len; ++i) {
+            if (board.getPos(path[i]) == 0) {
+                mark[path[i]] = stamp;
+                ++empty;
+            }
+        }
+        return Math.max(1, empty);
+    }
+
+    /**
+     * Busca entre los hijos de la raíz, ya demostrada, uno en el que pierde el rival.
+     * @return La jugada ganadora, o {@code -1} si se ha perdido de la tabla.
+     */
+    private int winningMove() {
+        int[] moves = moves(0);
+        int n = board.getMoves(moves);
+        int color = board.getCurrentColor();
+        long key = key();
+        for (int i = 0; i < n; ++i) {
+            if (board.isWinningMove(moves[i], color)) {
+                return moves[i];
+            }
+            long child = find(key ^ stoneKeys[color == 1 ? 0 : 1][moves[i]] ^ SIDE);
+            if (child >= 0 && deltas[(int)child] == 0) {
+                return moves[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Consulta si se ha acabado el presupuesto de la búsqueda.
+     * @return {@code true} si hay que detenerse.
+     */
+    private boolean isBudgetSpent() {
+        if (stopped) {
+            return true;
+        }
+        if (nodeLimit > 0 && nodes >= nodeLimit) {
+            stopped = true;
+        } else if (deadline > 0 && (nodes & 0x3FF) == 0 && System.currentTimeMillis() >= deadline) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * Retorna la clave del tablero actual: el hash de Zobrist con el jugador que mueve.
+     */
+    private long key() {
+        long h = board.hash();
+        return board.getCurrentColor() == 1 ? h : h ^ SIDE;
+    }
+
+    /**
+     * Busca una posición en la tabla.
+     * @return El índice de la entrada, o {@code -1} si no está.
+     */
+    private long find(long key) {
+        int i = (int)key & mask & ~1;
+        if (works[i] != 0 && keys[i] == key) {
+            return i;
+        }
+        if (works[i + 1] != 0 && keys[i + 1] == key) {
+            return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Guarda los números de una posición. Si la cubeta está llena se reemplaza la entrada
+     * con menos trabajo detrás, salvo que la posición ya esté en ella.
+     */
+    private void store(long key, int phi, int delta, long work) {
+        int i = (int)key & mask & ~1;
+        int slot;
+        if (works[i] != 0 && keys[i] == key) {
+            slot = i;
+        } else if (works[i + 1] != 0 && keys[i + 1] == key) {
+            slot = i + 1;
+        } else {
+            slot = works[i] <= works[i + 1] ? i : i + 1;
+        }
+        long prev = works[slot] != 0 && keys[slot] == key ? works[slot] : 0;
+        keys[slot]   = key;
+        phis[slot]   = phi;
+        deltas[slot] = delta;
+        works[slot]  = Math.max(prev, work);
+    }
+
+    private static int saturate(long v) {
+        return (int)Math.max(0, Math.min(INF, v));
+    }
+
+    /**
+     * Retorna el array de movimientos de un nivel de la búsqueda.
+     */
+    private int[] moves(int ply) {
+        int[] m = moveBuf[ply];
+        if (m == null) {
+            m = new int[boardSize * boardSize];
+            moveBuf[ply] = m;
+        }
+        return m;
+    }
+}
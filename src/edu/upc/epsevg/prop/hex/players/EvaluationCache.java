@@ -0,0 +1,203 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import java.util.Arrays;
+
+/**
+ * Caché de evaluaciones de hojas indexada por el hash de Zobrist de la posición.
+ * <p>
+ * Las mismas hojas se evalúan muchas veces: en cada iteración de iterative deepening, en
+ * subárboles hermanos que llegan a la misma posición y en jugadas consecutivas. La caché
+ * guarda el valor de la heurística para no recalcularlo.
+ * <p>
+ * Es una tabla de direccionamiento abierto con capacidad fija, agrupada en cubetas de
+ * {@link #WAYS} posiciones: una clave solo puede estar en su cubeta. Cuando la cubeta está
+ * llena se reemplaza la entrada usada hace más tiempo (LRU dentro de la cubeta), con un
+ * contador de accesos como reloj. Todo se guarda en arrays de {@code long}.
+ * <p>
+ * Como en {@link TranspositionTable}, junto a cada entrada se guarda {@code clave ^ entrada}
+ * para poder compartir la caché entre hilos sin bloqueos. Los contadores de aciertos y
+ * fallos no se sincronizan y son aproximados si varios hilos la usan a la vez.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class EvaluationCache {
+    /**
+     * Posiciones de cada cubeta.
+     */
+    public static final int WAYS = 4;
+
+    private static final int ENTRY_BYTES = 16;
+    private static final long USED = 1L << 63;
+
+    // Constantes para mezclar en la clave el jugador evaluado y la última ficha jugada
+    private static final long[] SIDE = {
+        0x9E3779B97F4A7C15L, 0xBF58476D1CE4E5B9L, 0x94D049BB133111EBL, 0xD6E8FEB86659FD93L
+    };
+
+    private final long[] keys;
+    private final long[] data;
+    private final int buckets;
+    private int tick;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor de la clase {@link EvaluationCache}.
+     * @param gigabytes Memoria máxima de la caché en gigabytes (por ejemplo {@code 0.25f}).
+     *                  Con {@code 0} la caché queda desactivada y todas las consultas fallan.
+     */
+    public EvaluationCache(float gigabytes) {
+        long bytes   = (long)(Math.max(0, gigabytes) * (1L << 30));
+        long entries = bytes / ENTRY_BYTES;
+        int capacity = entries >= WAYS
+                     ? Integer.highestOneBit((int)Math.min(entries, 1 << 30))
+                     : 0;
+        this.keys    = new long[capacity];
+        this.data    = new long[capacity];
+        this.buckets = capacity / WAYS;
+    }
+
+    /**
+     * Calcula la clave de una evaluación. La clave no incluye el tamaño del tablero ni la
+     * heurística: si cambian, hay que vaciar la caché con {@link #clear()}.
+     * @param hash     Hash de Zobrist de la posición.
+     * @param player   {@code true} si se evalúa para el jugador 1.
+     * @param me       {@code true} si el jugador que busca es el jugador 1.
+     * @param lastCell La última ficha jugada como índice {@code x * size + y}, si la
+     *                 evaluación depende de ella, o {@code -1}.
+     * @return         La clave.
+     */
+    public static long key(long hash, boolean player, boolean me, int lastCell) {
+        long k = hash ^ SIDE[(player ? 1 : 0) | (me ? 2 : 0)];
+        if (lastCell >= 0)
+            k ^= mix(lastCell + 1);
+        return k;
+    }
+
+    /**
+     * Consulta una evaluación.
+     * @param key Clave calculada con {@link #key(long, boolean, boolean, int)}.
+     * @return    La entrada, o {@code 0} si no está en la caché.
+     *
+     * @see #value(long)
+     */
+    public long probe(long key) {
+        if (buckets == 0)
+            return 0;
+        int base = bucket(key);
+        for (int i = base; i < base + WAYS; ++i) {
+            long d = data[i];
+            if (d != 0 && (keys[i] ^ d) == key) {
+                ++hits;
+                // Marcamos el acceso para el reemplazo LRU
+                long nd = (d & 0xFFFFFFFFL) | ((long)nextTick() << 32) | USED;
+                keys[i] = key ^ nd;
+                data[i] = nd;
+                return d;
+            }
+        }
+        ++misses;
+        return 0;
+    }
+
+    /**
+     * Guarda una evaluación. Si la cubeta está llena se reemplaza la entrada usada hace
+     * más tiempo.
+     * @param key   Clave calculada con {@link #key(long, boolean, boolean, int)}.
+     * @param value El valor de la evaluación.
+     */
+    public void store(long key, int value) {
+        if (buckets == 0)
+            return;
+        int base = bucket(key);
+        int slot = base;
+        int now  = tick;
+        int oldest = -1;
+        for (int i = base; i < base + WAYS; ++i) {
+            long d = data[i];
+            if (d == 0 || (keys[i] ^ d) == key) {
+                slot = i;
+                break;
+            }
+            // Edad con aritmética circular del reloj
+            int age = (now - stamp(d)) & 0x7FFFFFFF;
+            if (age > oldest) {
+                oldest = age;
+                slot = i;
+            }
+        }
+        long d = (value & 0xFFFFFFFFL) | ((long)nextTick() << 32) | USED;
+        keys[slot] = key ^ d;
+        data[slot] = d;
+    }
+
+    /**
+     * @param entry Entrada retornada por {@link #probe(long)}.
+     * @return      El valor guardado.
+     */
+    public static int value(long entry) {
+        return (int)entry;
+    }
+
+    /**
+     * Vacía la caché. Los contadores no cambian.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+    }
+
+    /**
+     * Retorna el número de entradas que caben en la caché.
+     * @return La capacidad.
+     */
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * Retorna el número de consultas que han encontrado la evaluación.
+     * @return Los aciertos desde la última llamada a {@link #resetStats()}.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Retorna el número de consultas que no han encontrado la evaluación.
+     * @return Los fallos desde la última llamada a {@link #resetStats()}.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Pone a cero los contadores de aciertos y fallos.
+     */
+    public void resetStats() {
+        hits   = 0;
+        misses = 0;
+    }
+
+    private int bucket(long key) {
+        // El número de cubetas es potencia de dos
+        return ((int)(key >>> 32 ^ key) & (buckets - 1)) * WAYS;
+    }
+
+    private int nextTick() {
+        tick = (tick + 1) & 0x7FFFFFFF;
+        return tick;
+    }
+
+    private static int stamp(long entry) {
+        return (int)(entry >>> 32) & 0x7FFFFFFF;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,124 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import java.util.Arrays;
+
+/**
+ * Ordenación de movimientos para la poda alpha-beta.
+ * <p>
+ * Los movimientos se ordenan según:
+ * <ol>
+ *   <li>El movimiento de la tabla de transposiciones o de la variante principal.</li>
+ *   <li>Los dos movimientos asesinos (killer moves) de la misma profundidad: movimientos
+ *       que han producido una poda en nodos hermanos.</li>
+ *   <li>La tabla de historia: cuántas podas ha producido cada casilla para cada color,
+ *       ponderado por la profundidad restante.</li>
+ * </ol>
+ * Las casillas se representan como índice {@code x * size + y}.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class MoveOrdering {
+    /**
+     * Número máximo de niveles de búsqueda con movimientos asesinos.
+     */
+    public static final int MAX_PLY = 128;
+
+    private static final int TT_SCORE      = 1 << 30;
+    private static final int KILLER1_SCORE = 1 << 29;
+    private static final int KILLER2_SCORE = 1 << 28;
+    private static final int HISTORY_MAX   = KILLER2_SCORE - 1;
+
+    private final int[][] killers = new int[MAX_PLY][2];
+    private int[][] history = new int[2][0];
+    private int[] scores = new int[0];
+    private int boardSize;
+
+    /**
+     * Prepara la ordenación para una nueva jugada.
+     * <p>
+     * Los movimientos asesinos se borran y la historia se reduce a la mitad para que
+     * las podas de búsquedas anteriores pesen menos que las actuales.
+     * @param boardSize El tamaño del tablero.
+     */
+    public void newSearch(int boardSize) {
+        if (boardSize != this.boardSize) {
+            this.boardSize = boardSize;
+            this.history = new int[2][boardSize * boardSize];
+            this.scores  = new int[boardSize * boardSize];
+        } else {
+            for (int[] h : history) {
+                for (int i = 0; i < h.length; ++i)
+                    h[i] >>= 1;
+            }
+        }
+        for (int[] k : killers)
+            Arrays.fill(k, -1);
+    }
+
+    /**
+     * Ordena los movimientos de un nodo, de más a menos prometedor.
+     * @param moves  Movimientos del nodo como índice {@code x * size + y}. Se ordenan en el
+     *               mismo array.
+     * @param count  Número de movimientos en {@code moves}.
+     * @param ply    Nivel del nodo respecto a la raíz.
+     * @param ttMove Movimiento de la tabla de transposiciones, o {@code -1}.
+     * @param color  Color del jugador que mueve en el nodo.
+     */
+    public void sort(int[] moves, int count, int ply, int ttMove, int color) {
+        int[] scores = this.scores;
+        int[] hist = history[color == 1 ? 0 : 1];
+        int k1 = ply < MAX_PLY ? killers[ply][0] : -1;
+        int k2 = ply < MAX_PLY ? killers[ply][1] : -1;
+        for (int i = 0; i < count; ++i) {
+            int cell = moves[i];
+            if (cell == ttMove)
+                scores[i] = TT_SCORE;
+            else if (cell == k1)
+                scores[i] = KILLER1_SCORE;
+            else if (cell == k2)
+                scores[i] = KILLER2_SCORE;
+            else
+                scores[i] = hist[cell];
+        }
+        // Ordenación por inserción estable: mantiene el orden del tablero en los empates
+        for (int i = 1; i < count; ++i) {
+            int score = scores[i];
+            int cell = moves[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                scores[j + 1] = scores[j];
+                moves[j + 1] = moves[j];
+                --j;
+            }
+            scores[j + 1] = score;
+            moves[j + 1] = cell;
+        }
+    }
+
+    /**
+     * Retorna la puntuación de historia de una casilla.
+     * @param cell  La casilla como índice {@code x * size + y}.
+     * @param color Color del jugador que mueve.
+     * @return      La suma ponderada de las podas que ha producido la casilla.
+     */
+    public int history(int cell, int color) {
+        return history[color == 1 ? 0 : 1][cell];
+    }
+
+    /**
+     * Registra un movimiento que ha producido una poda.
+     * @param ply   Nivel del nodo respecto a la raíz.
+     * @param cell  Movimiento como índice {@code x * size + y}.
+     * @param depth Profundidad restante del nodo.
+     * @param color Color del jugador que ha hecho el movimiento.
+     */
+    public void cutoff(int ply, int cell, int depth, int color) {
+        if (ply < MAX_PLY && killers[ply][0] != cell) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = cell;
+        }
+        int[] hist = history[color == 1 ? 0 : 1];
+        hist[cell] = Math.min(HISTORY_MAX, hist[cell] + depth * depth);
+    }
+}
@@ -0,0 +1,317 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import edu.upc.epsevg.prop.hex.*;
+
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Libro de aperturas de solo lectura sobre un fichero binario proyectado en memoria.
+ * <p>
+ * El fichero se abre con un {@link MappedByteBuffer} y no se carga: cada consulta es una
+ * búsqueda binaria directamente sobre el fichero, así que abrir el libro no cuesta nada
+ * aunque sea grande y el sistema operativo solo lee las páginas que se consultan. Las
+ * consultas usan lecturas absolutas y se pueden hacer desde varios hilos a la vez.
+ * <p>
+ * Formato del fichero (big-endian):
+ * <ul>
+ *   <li>Cabecera de {@value #HEADER_BYTES} bytes: {@link #MAGIC}, {@link #VERSION}, el
+ *       número de entradas y un entero reservado.</li>
+ *   <li>Entradas de {@value #ENTRY_BYTES} bytes ordenadas por clave: la clave de la
+ *       posición ({@code long}) y la jugada ({@code int}, con el tamaño del tablero en los
+ *       16 bits altos y la casilla {@code x * size + y} en los bajos).</li>
+ * </ul>
+ * La clave es el hash de Zobrist de la posición mezclado con el tamaño del tablero y el
+ * jugador que mueve. Un tablero de Hex tiene cuatro simetrías: la identidad, el giro de 180
+ * grados, y la trasposición y la trasposición con giro, que intercambian los papeles de los
+ * dos jugadores. Cada posición se guarda una sola vez, en la simetría con la clave menor
+ * (ver {@link #canonical(HexGameStatus)}), de modo que el libro cubre todas las posiciones
+ * equivalentes.
+ * <p>
+ * Los libros se crean con {@link Writer}; {@link OpeningBookBuilder} los genera con
+ * búsquedas profundas desde el tablero vacío.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class OpeningBook {
+    /**
+     * Identificador del formato al principio del fichero ({@code "HEXB"}).
+     */
+    public static final int MAGIC = 0x48455842;
+    /**
+     * Versión del formato.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Bytes de la cabecera.
+     */
+    public static final int HEADER_BYTES = 16;
+    /**
+     * Bytes de cada entrada.
+     */
+    public static final int ENTRY_BYTES = 12;
+
+    private static final long SIDE = 0x9E3779B97F4A7C15L;
+
+    private final ByteBuffer data;
+    private final int count;
+
+    /**
+     * Constructor de la clase {@link OpeningBook}.
+     * @param data El contenido del libro, con la cabecera.
+     * @throws IOException Si el contenido no tiene el formato de un libro.
+     */
+    private OpeningBook(ByteBuffer data) throws IOException {
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("No es un libro de aperturas");
+        }
+        this.count = data.getInt(8);
+        if ((long)HEADER_BYTES + (long)count * ENTRY_BYTES > data.capacity()) {
+            throw new IOException("Libro de aperturas truncado");
+        }
+        this.data = data;
+    }
+
+    /**
+     * Abre un libro de aperturas proyectando el fichero en memoria.
+     * @param file El fichero del libro.
+     * @return     El libro.
+     * @throws IOException Si no se puede leer el fichero o no es un libro.
+     */
+    public static OpeningBook open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            // La proyección sigue siendo válida después de cerrar el canal
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return new OpeningBook(map);
+        }
+    }
+
+    /**
+     * Retorna el número de posiciones del libro.
+     * @return El número de entradas.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Busca la jugada del libro para una posición o cualquiera de sus simétricas.
+     * @param s El estado del juego.
+     * @return  La jugada, o {@code null} si la posición no está en el libro.
+     */
+    public Point move(HexGameStatus s) {
+        int cell = lookup(s);
+        return cell < 0 ? null : new Point(cell / s.getSize(), cell % s.getSize());
+    }
+
+    /**
+     * Igual que {@link #move(HexGameStatus)}, con la jugada como índice de casilla.
+     * @param s El estado del juego.
+     * @return  La casilla {@code x * size + y}, o {@code -1} si la posición no está en el libro.
+     */
+    public int lookup(HexGameStatus s) {
+        if (count == 0 || s.isGameOver()) {
+            return -1;
+        }
+        int size = s.getSize();
+        int sym  = canonical(s);
+        int i = find(key(s, sym));
+        if (i < 0) {
+            return -1;
+        }
+        int move = data.getInt(HEADER_BYTES + i * ENTRY_BYTES + 8);
+        if (move >>> 16 != size) {
+            return -1;
+        }
+        // Las simetrías son involuciones: la misma transformación devuelve la jugada
+        int cell = transform(move & 0xFFFF, size, sym);
+        if (cell >= size * size || s.getPos(cell / size, cell % size) != 0) {
+            return -1;
+        }
+        return cell;
+    }
+
+    /**
+     * Búsqueda binaria de una clave.
+     * @return La posición de la entrada, o {@code -1}.
+     */
+    private int find(long key) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = data.getLong(HEADER_BYTES + mid * ENTRY_BYTES);
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Escoge la simetría en la que se guarda una posición: la de clave menor.
+     * @param s El estado del juego.
+     * @return  La simetría, de {@code 0} a {@code 3} (ver {@link #transform(int, int, int)}).
+     */
+    public static int canonical(HexGameStatus s) {
+        int best = 0;
+        long bestKey = key(s, 0);
+        for (int sym = 1; sym < 4; ++sym) {
+            long k = key(s, sym);
+            if (k < bestKey) {
+                bestKey = k;
+                best = sym;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Calcula la clave de una posición vista a través de una simetría.
+     * @param s   El estado del juego.
+     * @param sym La simetría (ver {@link #transform(int, int, int)}).
+     * @return    La clave.
+     */
+    public static long key(HexGameStatus s, int sym) {
+        int size = s.getSize();
+        boolean swap = (sym & 2) != 0;
+        long h = mix(size);
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                int color = s.getPos(x, y);
+                if (color != 0) {
+                    int c = transform(x * size + y, size, sym);
+                    h ^= Zobrist.key(c / size, c % size, swap ? -color : color);
+                }
+            }
+        }
+        int toMove = PlayerType.getColor(s.getCurrentPlayer());
+        if ((swap ? -toMove : toMove) == -1) {
+            h ^= SIDE;
+        }
+        return h;
+    }
+
+    /**
+     * Aplica una simetría del tablero a una casilla.
+     * <p>
+     * El bit 0 de {@code sym} gira el tablero 180 grados y el bit 1 lo traspone, que
+     * intercambia los lados de los dos jugadores. Las dos transformaciones conmutan y cada
+     * simetría es su propia inversa.
+     * @param cell La casilla como índice {@code x * size + y}.
+     * @param size El tamaño del tablero.
+     * @param sym  La simetría, de {@code 0} a {@code 3}.
+     * @return     La casilla transformada.
+     */
+    public static int transform(int cell, int size, int sym) {
+        int x = cell / size, y = cell % size;
+        if ((sym & 1) != 0) {
+            x = size - 1 - x;
+            y = size - 1 - y;
+        }
+        return (sym & 2) != 0 ? y * size + x : x * size + y;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Construye un libro de aperturas en memoria y lo escribe con el formato de
+     * {@link OpeningBook}.
+     */
+    public static class Writer {
+        private final TreeMap<Long, Integer> entries = new TreeMap<>();
+
+        /**
+         * Añade las entradas de un libro existente, por ejemplo para ampliarlo.
+         * @param book El libro.
+         */
+        public void addAll(OpeningBook book) {
+            for (int i = 0; i < book.count; ++i) {
+                int off = HEADER_BYTES + i * ENTRY_BYTES;
+                entries.put(book.data.getLong(off), book.data.getInt(off + 8));
+            }
+        }
+
+        /**
+         * Consulta si una posición, o alguna de sus simétricas, ya tiene jugada.
+         * @param s El estado del juego.
+         * @return  {@code true} si ya está en el libro.
+         */
+        public boolean contains(HexGameStatus s) {
+            return entries.containsKey(key(s, canonical(s)));
+        }
+
+        /**
+         * Retorna la jugada añadida para una posición o alguna de sus simétricas.
+         * @param s El estado del juego.
+         * @return  La jugada, o {@code null} si la posición no está en el libro.
+         */
+        public Point move(HexGameStatus s) {
+            int size = s.getSize();
+            int sym  = canonical(s);
+            Integer move = entries.get(key(s, sym));
+            if (move == null || move >>> 16 != size) {
+                return null;
+            }
+            int cell = transform(move & 0xFFFF, size, sym);
+            return new Point(cell / size, cell % size);
+        }
+
+        /**
+         * Añade o reemplaza la jugada de una posición.
+         * @param s    El estado del juego.
+         * @param move La jugada, en una casilla vacía de {@code s}.
+         */
+        public void add(HexGameStatus s, Point move) {
+            int size = s.getSize();
+            int sym  = canonical(s);
+            int cell = transform(move.x * size + move.y, size, sym);
+            entries.put(key(s, sym), size << 16 | cell);
+        }
+
+        /**
+         * Retorna el número de posiciones añadidas.
+         * @return El número de entradas.
+         */
+        public int size() {
+            return entries.size();
+        }
+
+        /**
+         * Escribe el libro en un fichero, con las entradas ordenadas por clave.
+         * @param file El fichero, que se sobrescribe si existe.
+         * @throws IOException Si no se puede escribir.
+         */
+        public void write(Path file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                out.writeInt(0);
+                for (Map.Entry<Long, Integer> e : entries.entrySet()) {
+                    out.writeLong(e.getKey());
+                    out.writeInt(e.getValue());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import edu.upc.epsevg.prop.hex.*;
+import edu.upc.epsevg.prop.hex.heuristic.Dijkstra;
+import edu.upc.epsevg.prop.hex.heuristic.Resistance;
+import edu.upc.epsevg.prop.hex.heuristic.TwoDistance;
+import edu.upc.epsevg.prop.hex.heuristic.VirtualConnections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Búsqueda alpha-beta en paralelo con el esquema Young Brothers Wait sobre un
+ * {@link ForkJoinPool}.
+ * <p>
+ * En cada nodo se busca primero el hermano mayor (el primer movimiento) en el propio hilo
+ * para obtener una cota. Después, el resto de hermanos se lanzan en paralelo como
+ * {@link RecursiveTask} con la ventana resultante. Si uno de ellos produce una poda, los
+ * hermanos pendientes se cancelan marcando su {@link Split}.
+ * <p>
+ * A diferencia de Lazy SMP, esta búsqueda es determinista: no usa la tabla de
+ * transposiciones ni la ordenación dinámica de movimientos, y cada hilo tiene su propio
+ * {@link Dijkstra}. El hermano mayor se busca sobre el mismo {@link SearchBoard} colocando
+ * y retirando la ficha; cada hermano lanzado en paralelo recibe su propia copia. Con la
+ * poda alpha-beta fail-hard, el valor de un nodo no depende del orden en que se buscan sus
+ * hijos. Por eso la jugada escogida es la misma que la de la búsqueda secuencial de
+ * {@link PathOfMinMax} sin tabla de transposiciones a la misma profundidad.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+class ParallelAlphaBeta {
+
+    /**
+     * Grupo de hermanos lanzados en paralelo. Al marcar {@code cut} se cancelan todos los
+     * nodos que cuelgan de él.
+     */
+    private static final class Split {
+        final Split parent;
+        volatile boolean cut;
+
+        Split(Split parent) {
+            this.parent = parent;
+        }
+    }
+
+    private final PathOfMinMax owner;
+    private final ForkJoinPool pool;
+    private ThreadLocal<Dijkstra> dijkstra;
+    private ThreadLocal<TwoDistance> twoDist;
+    private ThreadLocal<Resistance> resistance;
+    private ThreadLocal<VirtualConnections> vc;
+    private final LongAdder nodes = new LongAdder();
+
+    private PlayerType myType, enemyType;
+    private int boardSize;
+    private int value;
+
+    /**
+     * Constructor de la clase {@link ParallelAlphaBeta}.
+     * @param owner       El jugador que usa la búsqueda (aporta la heurística y el timeout).
+     * @param parallelism Número de hilos del {@link ForkJoinPool}.
+     */
+    ParallelAlphaBeta(PathOfMinMax owner, int parallelism) {
+        this.owner = owner;
+        this.pool  = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Detiene los hilos del {@link ForkJoinPool}.
+     */
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Retorna el valor de la raíz de la última búsqueda.
+     * @return El valor de la mejor jugada, o una cota si cayó fuera de la ventana.
+     */
+    int getValue() {
+        return value;
+    }
+
+    /**
+     * Retorna y pone a cero el número de hojas evaluadas.
+     * @return El número de hojas evaluadas desde la última llamada.
+     */
+    long takeNodes() {
+        return nodes.sumThenReset();
+    }
+
+    /**
+     * Busca la mejor jugada en la raíz.
+     * <p>
+     * Si la búsqueda se interrumpe por tiempo, se retorna la mejor jugada entre los hijos
+     * ya completados, siempre que se haya completado el primero.
+     *
+     * @param t      Tablero actual.
+     * @param depth  Profundidad de búsqueda.
+     * @param first  Movimiento a explorar primero como índice {@code x * size + y}, o
+     *               {@code -1}.
+     * @param alpha  Extremo inferior de la ventana en la raíz.
+     * @param beta   Extremo superior de la ventana en la raíz.
+     * @return       La mejor jugada como índice {@code x * size + y}, o {@code -1} si no se
+     *               ha completado ningún hijo.
+     */
+    int search(SearchBoard t, int depth, int first, int alpha, int beta) {
+        this.myType    = t.getCurrentPlayer();
+        this.enemyType = PlayerType.opposite(myType);
+        if (dijkstra == null || t.getSize() != boardSize) {
+            int size = t.getSize();
+            dijkstra   = ThreadLocal.withInitial(() -> new Dijkstra(size));
+            twoDist    = ThreadLocal.withInitial(() -> new TwoDistance(size));
+            resistance = ThreadLocal.withInitial(() -> new Resistance(size));
+            vc         = ThreadLocal.withInitial(() -> new VirtualConnections(size));
+        }
+        this.boardSize = t.getSize();
+
+        int[] moves = new int[t.countEmptyCells()];
+        int n = t.getMoves(moves);
+        if (n == 0) {
+            return -1;
+        }
+        if (first >= 0) {
+            for (int i = 0; i < n; ++i) {
+                if (moves[i] == first) {
+                    System.arraycopy(moves, 0, moves, 1, i);
+                    moves[0] = first;
+                    break;
+                }
+            }
+        }
+        return pool.invoke(new RecursiveTask<Integer>() {
+            @Override
+            protected Integer compute() {
+                return root(t, moves, depth, alpha, beta);
+            }
+        });
+    }
+
+    private int root(SearchBoard t, int[] moves, int depth, int alpha, int beta) {
+        Split split = new Split(null);
+        int c0 = moves[0];
+        int bestValue = Integer.MIN_VALUE;
+        int best = -1;
+
+        t.placeStone(c0);
+        int v0 = value(t, depth - 1, alpha, beta, c0, false, split);
+        t.undo();
+        if (owner.isTimeUp()) {
+            this.value = bestValue;
+            return -1;
+        }
+        bestValue = v0;
+        best = c0;
+        alpha = Math.max(alpha, v0);
+
+        List<Node> tasks = new ArrayList<>();
+        if (alpha < beta) {
+            for (int i = 1; i < moves.length; ++i) {
+                Node n = new Node(child(t, moves[i]), depth - 1, alpha, beta, moves[i], false, split);
+                n.fork();
+                tasks.add(n);
+            }
+        }
+        for (Node n : tasks) {
+            int v = n.join();
+            if (owner.isTimeUp()) {
+                break;
+            }
+            if (v > bestValue) {
+                bestValue = v;
+                best = n.lastPlayed;
+            }
+            if (v >= beta) {
+                break;
+            }
+        }
+        split.cut = true;
+        this.value = bestValue;
+        return best;
+    }
+
+    /**
+     * Valor de un nodo MAX ({@code max == true}) o MIN con la poda alpha-beta.
+     *
+     * @param t          Tablero tras el movimiento anterior. Al retornar queda igual que
+     *                   al entrar.
+     * @param depth      Profundidad restante.
+     * @param alpha      Valor de α.
+     * @param beta       Valor de β.
+     * @param lastPlayed Última pieza jugada como índice {@code x * size + y}.
+     * @param max        {@code true} si es un nodo MAX.
+     * @param split      Grupo de hermanos al que pertenece el nodo.
+     * @return           El valor del nodo, o un valor sin sentido si se ha cancelado.
+     */
+    private int value(SearchBoard t, int depth, int alpha, int beta, int lastPlayed, boolean max, Split split) {
+        // Si se acabó la partida, evaluamos
+        if (t.isGameOver()) {
+            return t.getWinner() == myType ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        }
+        if (isCut(split)) {
+            return 0;
+        }
+
+        // Caso base: profundidad 0 o no hay más movimientos
+        if (depth == 0 || t.countEmptyCells() == 0) {
+            nodes.increment();
+            return evaluate(t, max, lastPlayed);
+        }
+        int[] moves = new int[t.countEmptyCells()];
+        t.getMoves(moves);
+
+        // El hermano mayor se busca en este mismo hilo
+        t.placeStone(moves[0]);
+        int v = value(t, depth - 1, alpha, beta, moves[0], !max, split);
+        t.undo();
+        if (isCut(split)) {
+            return 0;
+        }
+        if (max) {
+            alpha = Math.max(alpha, v);
+        } else {
+            beta = Math.min(beta, v);
+        }
+        if (alpha >= beta || moves.length == 1) {
+            return max ? alpha : beta;
+        }
+
+        // El resto de hermanos, en paralelo con la cota obtenida
+        Split children = new Split(split);
+        List<Node> tasks = new ArrayList<>(moves.length - 1);
+        for (int i = 1; i < moves.length; ++i) {
+            Node n = new Node(child(t, moves[i]), depth - 1, alpha, beta, moves[i], !max, children);
+            n.fork();
+            tasks.add(n);
+        }
+        for (Node n : tasks) {
+            int val = n.join();
+            if (isCut(split)) {
+                children.cut = true;
+                return 0;
+            }
+            if (max) {
+                alpha = Math.max(alpha, val);
+            } else {
+                beta = Math.min(beta, val);
+            }
+            // Poda: cancelamos los hermanos que faltan
+            if (alpha >= beta) {
+                children.cut = true;
+                break;
+            }
+        }
+        return max ? alpha : beta;
+    }
+
+    private int evaluate(SearchBoard t, boolean max, int lastPlayed) {
+        switch (owner.getEvaluation()) {
+            case TWO_DISTANCE:
+                return twoDist.get().evaluate(t, myType);
+            case RESISTANCE:
+                return resistance.get().evaluate(t, myType);
+            case EDGE_TO_EDGE:
+                return dijkstra.get().connectionCost(t, enemyType) - dijkstra.get().connectionCost(t, myType);
+            case VIRTUAL_CONNECTIONS:
+                // Los tableros de esta búsqueda son copias sin receptor: se recalculan
+                VirtualConnections v = vc.get();
+                v.reset(t);
+                return dijkstra.get().connectionCost(t, enemyType, v) - dijkstra.get().connectionCost(t, myType, v);
+            default:
+                return owner.heuristic(dijkstra.get(), t, max ? myType : enemyType, lastPlayed);
+        }
+    }
+
+    private boolean isCut(Split split) {
+        if (owner.isTimeUp()) {
+            return true;
+        }
+        for (Split s = split; s != null; s = s.parent) {
+            if (s.cut) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SearchBoard child(SearchBoard t, int cell) {
+        SearchBoard newT = new SearchBoard(t);
+        newT.placeStone(cell);
+        return newT;
+    }
+
+    /**
+     * Tarea que calcula el valor de un hermano menor.
+     */
+    private final class Node extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        final SearchBoard t;
+        final int depth, alpha, beta;
+        final int lastPlayed;
+        final boolean max;
+        final Split split;
+
+        Node(SearchBoard t, int depth, int alpha, int beta, int lastPlayed, boolean max, Split split) {
+            this.t = t;
+            this.depth = depth;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.lastPlayed = lastPlayed;
+            this.max = max;
+            this.split = split;
+        }
+
+        @Override
+        protected Integer compute() {
+            return value(t, depth, alpha, beta, lastPlayed, max, split);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import edu.upc.epsevg.prop.hex.*;
+import edu.upc.epsevg.prop.hex.heuristic.Dijkstra;
+import edu.upc.epsevg.prop.hex.heuristic.VirtualConnections;
+
+import java.util.Arrays;
+
+/**
+ * Generador de candidatos que se queda con las casillas cercanas a los caminos y a las
+ * fichas del tablero.
+ * <p>
+ * Cada casilla vacía se puntúa, de más a menos importante, con:
+ * <ol>
+ *   <li>Los puentes propios invadidos: si el rival ha ocupado una casilla del portador, la
+ *       otra es la respuesta que mantiene la conexión.</li>
+ *   <li>Estar en el camino más corto entre los lados de cada jugador, calculado con
+ *       {@link Dijkstra#edgePath(SearchBoard, PlayerType, int[])}. Una casilla en los
+ *       dos caminos suma dos veces.</li>
+ *   <li>Estar a distancia de puente de una ficha, con el portador vacío.</li>
+ *   <li>Tocar alguna ficha.</li>
+ *   <li>La tabla de historia de {@link MoveOrdering}, que desempata.</li>
+ * </ol>
+ * En cada nivel se buscan los {@code K} movimientos con más puntuación, donde {@code K} se
+ * fija por nivel en el constructor. Los niveles sin límite no calculan nada.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class PathCandidates implements CandidateGenerator {
+    private static final int KEEP_SCORE    = Integer.MAX_VALUE;
+    private static final int SAVE_SCORE    = 1 << 28;
+    private static final int PATH_SCORE    = 1 << 26;
+    private static final int BRIDGE_SCORE  = 1 << 24;
+    private static final int CONTACT_SCORE = 1 << 22;
+    private static final int HISTORY_MAX   = CONTACT_SCORE - 1;
+
+    private static final PlayerType[] PLAYERS = {PlayerType.PLAYER1, PlayerType.PLAYER2};
+
+    private final int[] widths;
+
+    private int boardSize;
+    private Dijkstra dijkstra;
+    private VirtualConnections vc;
+    private int[] path;
+    private int[] scores;
+    private int[] cellScore;
+
+    /**
+     * Constructor de la clase {@link PathCandidates}.
+     * @param widths Número de movimientos a buscar en cada nivel a partir de la raíz. Con
+     *               {@code 0} se buscan todos. Los niveles más hondos que el último valor
+     *               usan el último valor; por ejemplo {@code (0, 0, 12, 8)} busca todos los
+     *               movimientos en los dos primeros niveles, 12 en el tercero y 8 en el resto.
+     */
+    public PathCandidates(int... widths) {
+        this.widths = widths.length > 0 ? widths.clone() : new int[] {0};
+    }
+
+    /**
+     * Retorna el número de movimientos que se buscan en un nivel.
+     * @param ply Nivel del nodo respecto a la raíz.
+     * @return    El número de movimientos, o {@code 0} si se buscan todos.
+     */
+    public int width(int ply) {
+        return widths[Math.min(ply, widths.length - 1)];
+    }
+
+    @Override
+    public int select(SearchBoard board, int[] moves, int count, int ply, int keep, MoveOrdering ordering) {
+        int k = width(ply);
+        if (k <= 0 || count <= k) {
+            return count;
+        }
+        prepare(board.getSize());
+        int color = board.getCurrentColor();
+        Arrays.fill(cellScore, 0);
+
+        // Caminos más cortos de los dos jugadores
+        for (PlayerType player : PLAYERS) {
+            int len = dijkstra.edgePath(board, player, path);
+            for (int i = 0; i < len; ++i) {
+                cellScore[path[i]] += PATH_SCORE;
+            }
+        }
+
+        // Relaciones con las fichas: contacto, puentes y puentes invadidos
+        int n = boardSize * boardSize;
+        for (int s = 0; s < n; ++s) {
+            int stone = board.getPos(s);
+            if (stone == 0) {
+                continue;
+            }
+            for (int v : board.neighbours(s)) {
+                cellScore[v] |= CONTACT_SCORE;
+            }
+            int[] partner  = vc.partners(s);
+            int[] carriers = vc.carriers(s);
+            for (int j = 0; j < partner.length; ++j) {
+                int p  = partner[j];
+                int c1 = board.getPos(carriers[2 * j]);
+                int c2 = board.getPos(carriers[2 * j + 1]);
+                if (c1 == 0 && c2 == 0) {
+                    cellScore[p] |= BRIDGE_SCORE;
+                } else if (stone == color && board.getPos(p) == color && c1 + c2 == -color) {
+                    // Puente propio con un lado del portador ocupado por el rival
+                    cellScore[c1 == 0 ? carriers[2 * j] : carriers[2 * j + 1]] |= SAVE_SCORE;
+                }
+            }
+        }
+
+        for (int i = 0; i < count; ++i) {
+            int cell = moves[i];
+            scores[i] = cell == keep
+                      ? KEEP_SCORE
+                      : cellScore[cell] + Math.min(HISTORY_MAX, ordering.history(cell, color));
+        }
+        // Ordenación por inserción estable: mantiene el orden recibido en los empates
+        for (int i = 1; i < count; ++i) {
+            int score = scores[i];
+            int cell = moves[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                scores[j + 1] = scores[j];
+                moves[j + 1] = moves[j];
+                --j;
+            }
+            scores[j + 1] = score;
+            moves[j + 1] = cell;
+        }
+        return k;
+    }
+
+    /**
+     * Reserva los arrays de trabajo para un tamaño de tablero, si ha cambiado.
+     */
+    private void prepare(int size) {
+        if (size == boardSize) {
+            return;
+        }
+        boardSize = size;
+        dijkstra  = new Dijkstra(size);
+        vc        = new VirtualConnections(size);
+        path      = new int[size * size + 1];
+        scores    = new int[size * size];
+        cellScore = new int[size * size];
+    }
+}
@@ -0,0 +1,314 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import edu.upc.epsevg.prop.hex.*;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Jugador que implementa Monte-Carlo Tree Search (UCT) con estadísticas RAVE/AMAF.
+ * <p>
+ * Cada simulación baja por el árbol escogiendo el hijo con mejor valor UCT combinado con
+ * su valor AMAF, y acaba con una partida aleatoria: se llenan todas las casillas vacías
+ * alternando colores. En Hex no hay empates, así que un tablero lleno siempre tiene un
+ * ganador y basta con un flood fill del {@link BitBoard} para saber quién es.
+ * <p>
+ * Durante la bajada por el árbol las fichas se añaden también a un {@link UnionFind} para
+ * reconocer los nodos terminales, que no necesitan simulación.
+ * <p>
+ * Las simulaciones se reparten entre varios hilos que comparten el árbol. Al bajar por un
+ * hijo se le suma una visita antes de conocer el resultado (pérdida virtual), para que los
+ * otros hilos tiendan a explorar otras ramas.
+ * <p>
+ * La búsqueda dura hasta que se llama a {@link #timeout()} o se supera el límite de tiempo
+ * interno ({@link #setTimeLimit(long)}). El {@link PlayerMove} retornado contiene el
+ * número de simulaciones como nodos explorados y la profundidad máxima del árbol.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class PathOfMCTS implements IPlayer, IAuto {
+
+    /**
+     * Constante de exploración de UCT.
+     */
+    private static final double UCT_C = 0.4;
+    /**
+     * Número de visitas a partir del cual el valor AMAF pesa lo mismo que el valor real.
+     */
+    private static final double RAVE_K = 500;
+    /**
+     * Visitas que necesita un hijo antes de expandirlo.
+     */
+    private static final int EXPAND_VISITS = 2;
+
+    private String name;
+    private int threads;
+    private long timeLimit;
+    private volatile boolean timeoutReached;
+    private long deadline;
+
+    private int size;
+    private ExecutorService pool;
+
+    private final AtomicLong playouts = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Nodo del árbol. Las estadísticas de cada hijo se guardan en el padre, en arrays
+     * indexados por el número de hijo.
+     */
+    private static final class Node {
+        final int[] moves;
+        final Node[] children;
+        final int[] visits;
+        final double[] wins;
+        final int[] raveVisits;
+        final double[] raveWins;
+        int total;
+
+        Node(int[] moves) {
+            int n = moves.length;
+            this.moves      = moves;
+            this.children   = new Node[n];
+            this.visits     = new int[n];
+            this.wins       = new double[n];
+            this.raveVisits = new int[n];
+            this.raveWins   = new double[n];
+        }
+    }
+
+    /**
+     * Constructor de la clase {@link PathOfMCTS}.
+     * @param name    El nombre del bot.
+     * @param threads Número de hilos que hacen simulaciones.
+     */
+    public PathOfMCTS(String name, int threads) {
+        this.name = name;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Fija un límite de tiempo interno por jugada.
+     * @param millis Tiempo máximo por jugada en milisegundos. Con {@code 0} solo se
+     *               respeta {@link #timeout()}.
+     */
+    public void setTimeLimit(long millis) {
+        this.timeLimit = millis;
+    }
+
+    /**
+     * Retorna el nombre asignado del bot.
+     * @return Nombre del bot.
+     */
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Avisa de que se ha acabado el tiempo de la jugada. Las simulaciones en curso se
+     * detienen y se juega el hijo de la raíz más visitado.
+     */
+    @Override
+    public void timeout() {
+        this.timeoutReached = true;
+    }
+
+    /**
+     * Implementación de la jugada que el bot ha de realizar.
+     * @param hgs El objeto de la clase {@link HexGameStatus} que determina el estado del juego.
+     * @return    El hijo de la raíz con más visitas.
+     */
+    @Override
+    public PlayerMove move(HexGameStatus hgs) {
+        this.timeoutReached = false;
+        this.deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : 0;
+        this.playouts.set(0);
+        this.maxDepth.set(0);
+        this.size = hgs.getSize();
+
+        BitBoard start = new BitBoard(hgs);
+        UnionFind startSets = new UnionFind(start);
+        int toMove = PlayerType.getColor(hgs.getCurrentPlayer());
+        Node root = new Node(emptyCells(start, new int[size * size]));
+        if (root.moves.length == 0) {
+            return new PlayerMove(null, 0, 0, SearchType.RANDOM);
+        }
+
+        if (pool == null && threads > 1) {
+            pool = Executors.newFixedThreadPool(threads - 1, r -> {
+                Thread t = new Thread(r, name + "-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 1; i < threads; ++i) {
+            running.add(pool.submit(() -> work(root, start, startSets, toMove)));
+        }
+        work(root, start, startSets, toMove);
+        for (Future<?> f : running) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(PathOfMCTS.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+
+        int best = 0;
+        for (int i = 1; i < root.moves.length; ++i) {
+            if (root.visits[i] > root.visits[best])
+                best = i;
+        }
+        int cell = root.moves[best];
+        // Las simulaciones son partidas aleatorias: no hay un tipo de búsqueda específico para MCTS
+        return new PlayerMove(new Point(cell / size, cell % size), playouts.get(), maxDepth.get(), SearchType.RANDOM);
+    }
+
+    private boolean isTimeUp() {
+        if (!timeoutReached && deadline > 0 && System.currentTimeMillis() >= deadline) {
+            timeoutReached = true;
+        }
+        return timeoutReached;
+    }
+
+    /**
+     * Bucle de simulaciones de un hilo.
+     * @param root   Raíz del árbol.
+     * @param start     Tablero de la raíz. Solo se lee.
+     * @param startSets Conjuntos de las fichas de la raíz. Solo se lee.
+     * @param toMove    Color del jugador que mueve en la raíz.
+     */
+    private void work(Node root, BitBoard start, UnionFind startSets, int toMove) {
+        int n2 = size * size;
+        BitBoard board = new BitBoard(size);
+        UnionFind sets = new UnionFind(size);
+        Node[] path    = new Node[n2 + 1];
+        int[] chosen   = new int[n2 + 1];
+        int[] empties  = new int[n2];
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+
+        while (!isTimeUp()) {
+            board.copyFrom(start);
+            sets.copyFrom(startSets);
+            int color = toMove;
+            int winner = 0;
+            int depth = 0;
+            Node node = root;
+
+            // Selección y expansión, con pérdida virtual
+            while (node != null && node.moves.length > 0) {
+                int i;
+                synchronized (node) {
+                    i = select(node);
+                    node.visits[i]++;
+                    node.total++;
+                }
+                path[depth] = node;
+                chosen[depth] = i;
+                ++depth;
+                board.set(node.moves[i], color);
+                sets.place(node.moves[i], color, board);
+                if (sets.connected(color)) {
+                    // Nodo terminal: no hace falta simular
+                    winner = color;
+                    break;
+                }
+                color = -color;
+                Node next;
+                synchronized (node) {
+                    next = node.children[i];
+                    if (next == null && node.visits[i] >= EXPAND_VISITS) {
+                        next = new Node(emptyCells(board, empties));
+                        node.children[i] = next;
+                    } else if (next == null) {
+                        break;
+                    }
+                }
+                node = next;
+            }
+
+            // Simulación: llenamos el tablero al azar. Es más rápido llenarlo entero y hacer
+            // un solo flood fill que comprobar la victoria ficha a ficha.
+            if (winner == 0) {
+                int m = board.emptyCells(empties);
+                for (int k = m - 1; k > 0; --k) {
+                    int j = rand.nextInt(k + 1);
+                    int tmp = empties[k];
+                    empties[k] = empties[j];
+                    empties[j] = tmp;
+                }
+                for (int k = 0; k < m; ++k) {
+                    board.set(empties[k], color);
+                    color = -color;
+                }
+                winner = board.connects(1) ? 1 : -1;
+            }
+
+            // Retropropagación de las estadísticas UCT y AMAF
+            int mover = toMove;
+            for (int d = 0; d < depth; ++d) {
+                Node p = path[d];
+                double result = winner == mover ? 1.0 : 0.0;
+                synchronized (p) {
+                    p.wins[chosen[d]] += result;
+                    for (int i = 0; i < p.moves.length; ++i) {
+                        if (board.get(p.moves[i]) == mover) {
+                            p.raveVisits[i]++;
+                            p.raveWins[i] += result;
+                        }
+                    }
+                }
+                mover = -mover;
+            }
+            playouts.incrementAndGet();
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    /**
+     * Escoge el hijo con mayor valor UCT-RAVE. Se ha de llamar con el nodo bloqueado.
+     * @param node El nodo.
+     * @return     El índice del hijo escogido.
+     */
+    private int select(Node node) {
+        double logTotal = Math.log(node.total + 1);
+        double beta = Math.sqrt(RAVE_K / (3.0 * node.total + RAVE_K));
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < node.moves.length; ++i) {
+            int n = node.visits[i];
+            int rn = node.raveVisits[i];
+            double q    = n  > 0 ? node.wins[i] / n : 1.0;
+            double amaf = rn > 0 ? node.raveWins[i] / rn : 1.0;
+            double score = (1 - beta) * q + beta * amaf + UCT_C * Math.sqrt(logTotal / (n + 1));
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Retorna las casillas vacías de un tablero.
+     * @param board El tablero.
+     * @param buf   Array auxiliar con espacio para todas las casillas.
+     * @return      Un array nuevo con las casillas vacías.
+     */
+    private static int[] emptyCells(BitBoard board, int[] buf) {
+        return Arrays.copyOf(buf, board.emptyCells(buf));
+    }
+}
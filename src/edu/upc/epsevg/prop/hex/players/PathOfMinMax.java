@@ -6,6 +6,11 @@ package edu.upc.epsevg.prop.hex.players;
 
 import edu.upc.epsevg.prop.hex.*;
 import edu.upc.epsevg.prop.hex.heuristic.Dijkstra;
+import edu.upc.epsevg.prop.hex.heuristic.IncrementalDistances;
+import edu.upc.epsevg.prop.hex.heuristic.InferiorCells;
+import edu.upc.epsevg.prop.hex.heuristic.Resistance;
+import edu.upc.epsevg.prop.hex.heuristic.TwoDistance;
+import edu.upc.epsevg.prop.hex.heuristic.VirtualConnections;
 
 import java.awt.Point;
 import java.time.Instant;
@@ -14,7 +19,15 @@ import java.time.Period;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Clase que implementa el algoritmo MinMax con la poda alpha-beta para determinar cual es la mejor 
@@ -29,13 +42,108 @@ public class PathOfMinMax implements IPlayer, IAuto
     private int boardSize;
     private int depth;
     private Dijkstra dijkstra;
+    private TwoDistance twoDist;
+    private Resistance resistance;
+    private IncrementalDistances distances;
+    private VirtualConnections vc;
+    private InferiorCells inferior;
+    private CandidateGenerator candidates;
+    private int[] pathBuf;
     private LocalDateTime start;
     private LocalDateTime time1;
     private DateTimeFormatter formatter;
     private boolean first = true;
+    private TranspositionTable tt;
+    private EvaluationCache evalCache;
+    private MoveOrdering ordering = new MoveOrdering();
+    private int rootDepth;
+
+    private boolean iterative;
+    private boolean pvs = true;
+    private Evaluation evaluation = Evaluation.DIJKSTRA;
+    private boolean incremental;
+    private boolean inferiorCells;
+    private Supplier<? extends CandidateGenerator> candidateFactory;
+    private OpeningBook book;
+    private DfpnSolver solver;
+    private int solverCells;
+    private boolean solverParallel;
+    private volatile boolean solving;
+    private ExecutorService solverPool;
+    private boolean ponder;
+    private ExecutorService ponderPool;
+    private Future<?> pondering;
+    private long ponderKey;
+    private long timeLimit;
+    private long deadline;
+    private volatile boolean timeoutReached;
+    private int rootValue;
+
+    private int threads = 1;
+    private int helperId;
+    private PathOfMinMax[] helpers;
+    private ExecutorService pool;
+    private ParallelAlphaBeta ybw;
+
+    private SearchBoard board;
+    private int[][] moveBuf;
 
     private long numNodes;
 
+    /**
+     * Tamaño por defecto de la tabla de transposiciones en megabytes.
+     */
+    public static final int DEFAULT_TT_MB = 64;
+
+    /**
+     * Semiamplitud inicial de la ventana de aspiración en iterative deepening.
+     */
+    private static final int ASPIRATION_WINDOW = 400;
+
+    /**
+     * Evaluaciones disponibles para las hojas de la búsqueda.
+     *
+     * @see PathOfMinMax#setEvaluation(Evaluation)
+     */
+    public enum Evaluation {
+        /**
+         * Camino de Dijkstra desde la última ficha jugada.
+         */
+        DIJKSTRA,
+        /**
+         * Diferencia de los costes de unir los dos lados de cada jugador, con
+         * {@link Dijkstra#connectionCost(SearchBoard, PlayerType)}.
+         */
+        EDGE_TO_EDGE,
+        /**
+         * Diferencia de potenciales de dos distancias ({@link TwoDistance}).
+         */
+        TWO_DISTANCE,
+        /**
+         * Cociente de resistencias eléctricas de los dos jugadores ({@link Resistance}).
+         */
+        RESISTANCE,
+        /**
+         * Como {@link #EDGE_TO_EDGE}, pero con los puentes y plantillas de borde de
+         * {@link VirtualConnections} como conexiones de coste bajo.
+         */
+        VIRTUAL_CONNECTIONS
+    }
+
+    /**
+     * Constructor de la clase {@link PathOfMinMax} en modo iterative deepening.
+     * <p>
+     * En este modo la búsqueda empieza en profundidad 1 y va aumentando hasta que se
+     * llama a {@link #timeout()} o se supera el límite de tiempo interno
+     * (ver {@link #setTimeLimit(long)}). Se retorna el resultado de la última
+     * profundidad completada.
+     * @param name El nombre del bot.
+     */
+    public PathOfMinMax(String name) {
+        this(name, Integer.MAX_VALUE, DEFAULT_TT_MB);
+        this.iterative = true;
+    }
+
     /**
      * Constructor de la clase {@link PathOfMinMax}.
      * @param name  El nombre del bot.
@@ -43,11 +151,294 @@ public class PathOfMinMax implements IPlayer, IAuto
 
      */
     public PathOfMinMax(String name, int depth) {
+        this(name, depth, DEFAULT_TT_MB);
+    }
+
+    /**
+     * Constructor de la clase {@link PathOfMinMax}.
+     * @param name   El nombre del bot.
+     * @param depth  La profunditat de cerca.
+     * @param ttSize Memoria de la tabla de transposiciones en megabytes. Con {@code 0}
+     *               no se usa tabla de transposiciones.
+     */
+    public PathOfMinMax(String name, int depth, int ttSize) {
         this.name = name;
         this.depth = depth;
+        this.tt = new TranspositionTable(ttSize);
         formatter = DateTimeFormatter.ofPattern("mm:ss.SSS");
     }
 
+    /**
+     * Constructor de los hilos auxiliares de la búsqueda en paralelo.
+     * <p>
+     * El auxiliar comparte la tabla de transposiciones con el hilo principal, pero tiene
+     * su propia ordenación de movimientos y su propio {@link Dijkstra}.
+     * @param main     El jugador del hilo principal.
+     * @param helperId Número del hilo auxiliar (a partir de 1).
+     */
+    private PathOfMinMax(PathOfMinMax main, int helperId) {
+        this.name = main.name + "#" + helperId;
+        this.depth = main.depth;
+        this.tt = main.tt;
+        this.evalCache = main.evalCache;
+        this.pvs = main.pvs;
+        this.evaluation = main.evaluation;
+        this.incremental = main.incremental;
+        this.inferiorCells = main.inferiorCells;
+        this.candidateFactory = main.candidateFactory;
+        this.iterative = true;
+        this.helperId = helperId;
+    }
+
+    /**
+     * Fija un límite de tiempo interno por jugada para el modo iterative deepening.
+     * <p>
+     * Es útil para dejar margen respecto al timeout de la partida: la búsqueda se
+     * detiene cuando pasa este tiempo aunque todavía no se haya llamado a {@link #timeout()}.
+     * @param millis Tiempo máximo por jugada en milisegundos. Con {@code 0} solo se
+     *               respeta {@link #timeout()}.
+     */
+    public void setTimeLimit(long millis) {
+        this.timeLimit = millis;
+    }
+
+    /**
+     * Activa o desactiva el modo iterative deepening.
+     * <p>
+     * Con los constructores que reciben una profundidad, esta pasa a ser la profundidad
+     * máxima de iterative deepening.
+     * @param iterative {@code true} para usar iterative deepening.
+     */
+    public void setIterative(boolean iterative) {
+        this.iterative = iterative;
+    }
+
+    /**
+     * Fija el número de hilos de la búsqueda (Lazy SMP).
+     * <p>
+     * Además del hilo principal se lanzan {@code threads - 1} hilos auxiliares que hacen
+     * la misma búsqueda iterative deepening, empezando a profundidades alternas, y comparten
+     * la tabla de transposiciones. Los auxiliares solo sirven para llenar la tabla: el
+     * movimiento retornado es siempre el del hilo principal.
+     * @param threads Número total de hilos. Con {@code 1} la búsqueda es secuencial.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        if (this.pool != null) {
+            this.pool.shutdownNow();
+            this.pool = null;
+        }
+        this.helpers = null;
+    }
+
+    /**
+     * Activa la búsqueda alpha-beta en paralelo con Young Brothers Wait sobre un
+     * {@link java.util.concurrent.ForkJoinPool}.
+     * <p>
+     * Es una alternativa determinista a {@link #setThreads(int)}: no usa la tabla de
+     * transposiciones ni la ordenación dinámica, y escoge la misma jugada que la búsqueda
+     * secuencial sin tabla de transposiciones a la misma profundidad. Si está activada,
+     * los hilos de Lazy SMP no se lanzan.
+     * @param parallelism Número de hilos. Con {@code 0} se desactiva.
+     *
+     * @see ParallelAlphaBeta
+     */
+    public void setForkJoin(int parallelism) {
+        if (this.ybw != null) {
+            this.ybw.shutdown();
+        }
+        this.ybw = parallelism > 0 ? new ParallelAlphaBeta(this, parallelism) : null;
+    }
+
+    /**
+     * Activa o desactiva el modo Principal Variation Search (PVS).
+     * <p>
+     * En modo PVS el primer hijo de cada nodo se busca con la ventana completa y el
+     * resto con una ventana nula, repitiendo la búsqueda solo si el hijo resulta mejor.
+     * En iterative deepening, además, cada iteración empieza con una ventana de
+     * aspiración centrada en el valor de la iteración anterior. Está activado por defecto.
+     * @param pvs {@code true} para usar PVS; {@code false} para usar alpha-beta con
+     *            ventana completa en todos los hijos.
+     */
+    public void setPVS(boolean pvs) {
+        this.pvs = pvs;
+    }
+
+    /**
+     * Escoge la evaluación de las hojas.
+     * <p>
+     * Por defecto se usa {@link Evaluation#DIJKSTRA}, el camino de Dijkstra desde la
+     * última ficha jugada (ver {@link #heuristic(HexGameStatus, PlayerType, Point)}).
+     * @param evaluation La evaluación a usar.
+     */
+    public void setEvaluation(Evaluation evaluation) {
+        if (evaluation != this.evaluation) {
+            // Los valores de la tabla y de la caché son de la evaluación anterior
+            this.tt.clear();
+            if (this.evalCache != null) {
+                this.evalCache.clear();
+            }
+        }
+        this.evaluation = evaluation;
+    }
+
+    /**
+     * Pone una caché de evaluaciones delante de la heurística de las hojas.
+     * <p>
+     * La caché se mantiene entre jugadas y se comparte con los hilos de Lazy SMP, y se vacía
+     * al cambiar el tamaño del tablero o la evaluación. Con la evaluación
+     * {@link Evaluation#DIJKSTRA} la clave incluye la última ficha jugada, porque el valor
+     * depende de ella.
+     * @param gigabytes Memoria máxima de la caché en gigabytes. Con {@code 0} no se usa caché.
+     *
+     * @see EvaluationCache
+     */
+    public void setEvaluationCache(float gigabytes) {
+        this.evalCache = gigabytes > 0 ? new EvaluationCache(gigabytes) : null;
+    }
+
+    /**
+     * Retorna la caché de evaluaciones, por ejemplo para consultar sus aciertos y fallos.
+     * @return La caché, o {@code null} si no se usa.
+     *
+     * @see #setEvaluationCache(float)
+     */
+    public EvaluationCache getEvaluationCache() {
+        return evalCache;
+    }
+
+    /**
+     * Activa o desactiva las distancias incrementales en la evaluación {@link Evaluation#DIJKSTRA}.
+     * <p>
+     * En lugar de ejecutar Dijkstra desde cero en cada hoja, las distancias desde los
+     * cuatro lados se mantienen en un {@link IncrementalDistances} que se repara al
+     * colocar y retirar cada ficha, y el camino que se puntúa es el más corto entre los dos
+     * lados que pasa por la última ficha jugada. La puntuación es la misma que la de
+     * {@link #heuristic(HexGameStatus, PlayerType, Point)}, aunque con empates el camino
+     * escogido puede ser otro. No se usa en la búsqueda de {@link #setForkJoin(int)}, que
+     * copia los tableros. Está desactivado por defecto.
+     * @param incremental {@code true} para usar distancias incrementales.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Activa o desactiva el análisis de casillas inferiores ({@link InferiorCells}).
+     * <p>
+     * Antes de buscar se rellenan en el tablero de búsqueda las casillas capturadas, con
+     * el color de su jugador, y las muertas. Después, en cada nodo interior se quitan de los
+     * movimientos las casillas muertas y las de pares capturados. Si el relleno ya decide
+     * la partida se busca sobre el tablero sin rellenar, para que la jugada escogida
+     * responda a las amenazas reales. La búsqueda de {@link #setForkJoin(int)} solo usa el
+     * relleno de la raíz. Está desactivado por defecto.
+     * @param inferiorCells {@code true} para podar las casillas inferiores.
+     */
+    public void setInferiorCells(boolean inferiorCells) {
+        this.inferiorCells = inferiorCells;
+    }
+
+    /**
+     * Activa la poda hacia delante con un generador de movimientos candidatos.
+     * <p>
+     * En cada nodo el generador escoge qué movimientos se buscan (por ejemplo
+     * {@link PathCandidates}, que se queda con los {@code K} mejores de cada nivel). La
+     * búsqueda deja de ser exacta, pero llega más hondo en el mismo tiempo. Cada hilo de
+     * Lazy SMP crea su propio generador con {@code factory}. No se usa en la búsqueda de
+     * {@link #setForkJoin(int)}. Está desactivada por defecto.
+     * @param factory Crea los generadores, por ejemplo {@code () -> new PathCandidates(0, 0, 10)},
+     *                o {@code null} para buscar todos los movimientos.
+     *
+     * @see CandidateGenerator
+     */
+    public void setCandidates(Supplier<? extends CandidateGenerator> factory) {
+        this.candidateFactory = factory;
+        this.candidates = null;
+    }
+
+    /**
+     * Usa un libro de aperturas: si la posición (o una simétrica) está en el libro,
+     * {@link #move(HexGameStatus)} retorna su jugada sin buscar.
+     * @param book El libro, o {@code null} para buscar siempre.
+     *
+     * @see OpeningBook
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Usa un resolutor df-pn en las posiciones con pocas casillas vacías.
+     * <p>
+     * Cuando quedan como mucho {@code maxEmptyCells} casillas vacías,
+     * {@link #move(HexGameStatus)} intenta demostrar quién gana con el presupuesto de nodos
+     * y de tiempo de {@code solver}. Si demuestra que ganamos retorna la jugada ganadora
+     * sin buscar; si no, busca como siempre. La tabla del resolutor se mantiene entre
+     * jugadas. Por defecto el resolutor se ejecuta antes de la búsqueda (ver
+     * {@link #setParallelSolver(boolean)}).
+     * @param solver        El resolutor, o {@code null} para no usarlo.
+     * @param maxEmptyCells Número máximo de casillas vacías para usar el resolutor.
+     *
+     * @see DfpnSolver
+     */
+    public void setSolver(DfpnSolver solver, int maxEmptyCells) {
+        this.solver = solver;
+        this.solverCells = maxEmptyCells;
+    }
+
+    /**
+     * Ejecuta el resolutor de {@link #setSolver(DfpnSolver, int)} en un hilo propio a la vez
+     * que la búsqueda heurística, en lugar de antes.
+     * <p>
+     * Si el resolutor demuestra que ganamos, detiene la búsqueda y se retorna su jugada. Si
+     * la búsqueda acaba antes, se detiene el resolutor y se retorna la jugada de la búsqueda.
+     * @param parallel {@code true} para ejecutar el resolutor en paralelo.
+     */
+    public void setParallelSolver(boolean parallel) {
+        this.solverParallel = parallel;
+    }
+
+    /**
+     * Activa o desactiva la búsqueda durante el turno del rival (pondering).
+     * <p>
+     * Después de cada jugada buscada, se sigue buscando en un hilo propio la posición a la
+     * que se llega si el rival responde con la jugada esperada: el mejor movimiento guardado
+     * en la tabla de transposiciones para la posición tras nuestra jugada. La búsqueda dura
+     * hasta la siguiente llamada a {@link #move(HexGameStatus)}, que la detiene y espera a
+     * que acabe. Si el rival ha jugado la respuesta esperada, la nueva búsqueda aprovecha
+     * la tabla de transposiciones ya llena y llega más hondo en el mismo tiempo; si no, la
+     * búsqueda del rival simplemente se descarta.
+     * <p>
+     * Solo busca el hilo principal, sin los auxiliares de Lazy SMP. No sirve con
+     * {@link #setForkJoin(int)}, que no usa la tabla de transposiciones. Con un solo
+     * procesador el hilo le quita tiempo al rival. Está desactivado por defecto.
+     * @param ponder {@code true} para buscar durante el turno del rival.
+     *
+     * @see #stopPondering()
+     */
+    public void setPonder(boolean ponder) {
+        this.ponder = ponder;
+        if (!ponder) {
+            stopPondering();
+        }
+    }
+
+    /**
+     * Detiene la búsqueda durante el turno del rival, si hay alguna en curso, y espera a
+     * que acabe. Sirve, por ejemplo, para no dejarla en marcha al acabar la partida.
+     */
+    public void stopPondering() {
+        stopPondering(null);
+    }
+
+    /**
+     * Retorna la evaluación de las hojas.
+     * @return La evaluación escogida con {@link #setEvaluation(Evaluation)}.
+     */
+    Evaluation getEvaluation() {
+        return evaluation;
+    }
+
     /**
      * Retorna el nombre asignado del bot.
      * @return Nombre del bot.
@@ -61,7 +452,8 @@ public class PathOfMinMax implements IPlayer, IAuto
      * Implementación de la jugada que el bot ha de realizar.
      * <p>
      * Este método hace una llamada al método {@link minmax} el cual simulará varias jugadas
-     * y determinará cual es el mejor.
+     * y determinará cual es el mejor. En modo iterative deepening se llama a
+     * {@link iterativeDeepening} en su lugar.
      * @param hgs El objeto de la clase {@link HexGameStatus} que determina el estado del juego.
      * @return    Retorna el mejor movimiento posible a jugar.
      * 
@@ -70,22 +462,62 @@ public class PathOfMinMax implements IPlayer, IAuto
      */
     @Override
     public PlayerMove move(HexGameStatus hgs) {
+        boolean ponderHit = stopPondering(hgs);
+        if (book != null) {
+            Point p = book.move(hgs);
+            if (p != null) {
+                return new PlayerMove(p, 0, 0, SearchType.MINIMAX);
+            }
+        }
         if (this.first == true) {
             this.start = LocalDateTime.now();
             this.first = false;
         }
         this.time1      = LocalDateTime.now();
-        this.numNodes   = 0;
-        this.myType     = hgs.getCurrentPlayer();
-        this.boardSize  = hgs.getSize();
-        this.enemyType  = PlayerType.opposite(myType);
+        this.deadline   = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : 0;
+        if (hgs.getCurrentPlayer() != this.myType || hgs.getSize() != this.boardSize) {
+            // Los valores de la tabla dependen del jugador que somos, y el hash de Zobrist
+            // no distingue el tamaño del tablero
+            this.tt.clear();
+        }
+        if (hgs.getSize() != this.boardSize && this.evalCache != null) {
+            this.evalCache.clear();
+        }
+        if (!ponderHit) {
+            // Si acertamos la respuesta, las entradas de la búsqueda en el turno del rival
+            // son de esta misma búsqueda
+            this.tt.newSearch();
+        }
+        prepare(hgs);
 
-        this.dijkstra = new Dijkstra(this.boardSize);
+        Future<Point> proof = null;
+        if (solver != null && Utils.countEmptyCells(hgs) <= solverCells) {
+            if (solverParallel) {
+                proof = startSolver(hgs);
+            } else {
+                Point win = solve(hgs);
+                if (win != null) {
+                    return new PlayerMove(win, solver.getNodes(), 0, SearchType.MINIMAX);
+                }
+            }
+        }
 
         // System.out.printf("%s is player type %s\n", name, myType == PlayerType.PLAYER2 ? "PLAYER2" : "PLAYER1");
         // System.out.printf("Depth: %d\n", depth);
 
-        PlayerMove ret = minmax(hgs, depth);
+        List<Future<?>> running = startHelpers(hgs);
+        PlayerMove ret = iterative ? iterativeDeepening(board)
+                                   : minmax(board, depth, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        long helperNodes = stopHelpers(running);
+        if (helperNodes > 0) {
+            ret = new PlayerMove(ret.getPoint(), ret.getNumerOfNodesExplored() + helperNodes,
+                                 ret.getMaxDepthReached(), SearchType.MINIMAX);
+        }
+        Point win = stopSolver(proof);
+        if (win != null) {
+            ret = new PlayerMove(win, ret.getNumerOfNodesExplored() + solver.getNodes(),
+                                 ret.getMaxDepthReached(), SearchType.MINIMAX);
+        }
 
         LocalDateTime now = LocalDateTime.now();
         long milli  = ChronoUnit.MILLIS.between(this.time1, now);
@@ -94,15 +526,317 @@ public class PathOfMinMax implements IPlayer, IAuto
         LocalDateTime instant2 = LocalDateTime.ofInstant(Instant.ofEpochMilli(milli2), ZoneId.systemDefault());
         System.out.println("Time to execute MinMax: " + instant.format(formatter));
         System.out.println("Time to execute MinMax (since first iteration): " + instant2.format(formatter));
+        if (ponder) {
+            startPondering(hgs, ret.getPoint());
+        }
         return ret;
     }
 
     /**
-     * TODO
+     * Inicializa el estado de búsqueda propio de cada hilo para una nueva jugada.
+     * @param hgs El estado del juego.
+     */
+    private void prepare(HexGameStatus hgs) {
+        this.numNodes   = 0;
+        this.timeoutReached = false;
+        this.myType     = hgs.getCurrentPlayer();
+        this.boardSize  = hgs.getSize();
+        this.enemyType  = PlayerType.opposite(myType);
+        this.ordering.newSearch(this.boardSize);
+
+        if (this.dijkstra == null || this.dijkstra.getBoardSize() != this.boardSize) {
+            this.dijkstra = new Dijkstra(this.boardSize);
+        }
+        if (evaluation == Evaluation.TWO_DISTANCE) {
+            if (this.twoDist == null || this.twoDist.getBoardSize() != this.boardSize) {
+                this.twoDist = new TwoDistance(this.boardSize);
+            }
+        } else {
+            this.twoDist = null;
+        }
+        // Se mantiene entre jugadas para empezar desde los potenciales de la última evaluación
+        if (evaluation == Evaluation.RESISTANCE) {
+            if (this.resistance == null || this.resistance.getBoardSize() != this.boardSize) {
+                this.resistance = new Resistance(this.boardSize);
+            }
+        } else {
+            this.resistance = null;
+        }
+        this.board    = new SearchBoard(hgs);
+        if (inferiorCells) {
+            if (this.inferior == null || this.inferior.getBoardSize() != this.boardSize) {
+                this.inferior = new InferiorCells(this.boardSize);
+            }
+            this.inferior.fillIn(this.board);
+            if (this.board.isGameOver() && !hgs.isGameOver()) {
+                this.board = new SearchBoard(hgs);
+            }
+        } else {
+            this.inferior = null;
+        }
+        if (incremental && evaluation == Evaluation.DIJKSTRA && ybw == null) {
+            this.distances = new IncrementalDistances(this.board);
+            this.pathBuf   = new int[2 * this.boardSize * this.boardSize];
+            this.board.setListener(this.distances);
+        } else {
+            this.distances = null;
+        }
+        // Las conexiones virtuales se mantienen al jugar y deshacer en el tablero de búsqueda
+        if (evaluation == Evaluation.VIRTUAL_CONNECTIONS && ybw == null) {
+            this.vc = new VirtualConnections(this.board);
+            this.board.setListener(this.vc);
+        } else {
+            this.vc = null;
+        }
+        if (candidateFactory == null) {
+            this.candidates = null;
+        } else if (this.candidates == null) {
+            this.candidates = candidateFactory.get();
+        }
+        int cells = this.boardSize * this.boardSize;
+        if (this.moveBuf == null || this.moveBuf.length != cells + 1) {
+            this.moveBuf = new int[cells + 1][];
+        }
+    }
+
+    /**
+     * Retorna el array de movimientos de un nivel de la búsqueda.
+     * <p>
+     * Cada nivel tiene su propio array, que se crea la primera vez que se usa y se
+     * reutiliza en el resto de nodos del mismo nivel.
+     * @param ply Nivel del nodo respecto a la raíz.
+     * @return    Array con espacio para todas las casillas del tablero.
+     */
+    private int[] moves(int ply) {
+        int[] m = moveBuf[ply];
+        if (m == null) {
+            m = new int[boardSize * boardSize];
+            moveBuf[ply] = m;
+        }
+        return m;
+    }
+
+    /**
+     * Lanza los hilos auxiliares de Lazy SMP sobre el tablero {@code hgs}.
+     * @param hgs El estado del juego.
+     * @return    Las tareas lanzadas.
+     */
+    private List<Future<?>> startHelpers(HexGameStatus hgs) {
+        List<Future<?>> running = new ArrayList<>();
+        if (threads <= 1 || ybw != null) {
+            return running;
+        }
+        if (helpers == null) {
+            helpers = new PathOfMinMax[threads - 1];
+            for (int i = 0; i < helpers.length; ++i) {
+                helpers[i] = new PathOfMinMax(this, i + 1);
+            }
+            pool = Executors.newFixedThreadPool(helpers.length, r -> {
+                Thread t = new Thread(r, name + "-helper");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        for (PathOfMinMax h : helpers) {
+            h.depth = this.depth;
+            h.pvs   = this.pvs;
+            h.evaluation = this.evaluation;
+            h.incremental = this.incremental;
+            h.inferiorCells = this.inferiorCells;
+            if (h.candidateFactory != this.candidateFactory) {
+                h.setCandidates(this.candidateFactory);
+            }
+            h.evalCache = this.evalCache;
+            h.prepare(hgs);
+            running.add(pool.submit(() -> h.iterativeDeepening(h.board)));
+        }
+        return running;
+    }
+
+    /**
+     * Detiene los hilos auxiliares y espera a que acaben.
+     * @param running Las tareas lanzadas por {@link #startHelpers(HexGameStatus)}.
+     * @return        El número de nodos explorados por los hilos auxiliares.
+     */
+    private long stopHelpers(List<Future<?>> running) {
+        if (running.isEmpty()) {
+            return 0;
+        }
+        for (PathOfMinMax h : helpers) {
+            h.timeout();
+        }
+        long nodes = 0;
+        for (int i = 0; i < running.size(); ++i) {
+            try {
+                running.get(i).get();
+            } catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(PathOfMinMax.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            nodes += helpers[i].numNodes;
+        }
+        return nodes;
+    }
+
+    /**
+     * Intenta resolver la posición con {@link DfpnSolver}.
+     * @param hgs El estado del juego.
+     * @return    La jugada ganadora, o {@code null} si no se ha demostrado que ganamos.
+     */
+    private Point solve(HexGameStatus hgs) {
+        this.solving = true;
+        try {
+            // Un timeout anterior a solving no llega al resolutor
+            if (timeoutReached) {
+                return null;
+            }
+            return solver.solve(hgs) == myType ? solver.getWinningMove() : null;
+        } finally {
+            this.solving = false;
+        }
+    }
+
+    /**
+     * Lanza el resolutor en su hilo. Si demuestra que ganamos, detiene la búsqueda.
+     * @param hgs El estado del juego.
+     * @return    La tarea lanzada, que retorna la jugada ganadora o {@code null}.
+     */
+    private Future<Point> startSolver(HexGameStatus hgs) {
+        if (solverPool == null) {
+            solverPool = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name + "-solver");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return solverPool.submit(() -> {
+            Point win = solve(hgs);
+            if (win != null) {
+                this.timeoutReached = true;
+            }
+            return win;
+        });
+    }
+
+    /**
+     * Detiene el resolutor lanzado con {@link #startSolver(HexGameStatus)} y espera a que acabe.
+     * @param proof La tarea del resolutor, o {@code null}.
+     * @return      La jugada ganadora, o {@code null} si no se ha demostrado que ganamos.
+     */
+    private Point stopSolver(Future<Point> proof) {
+        if (proof == null) {
+            return null;
+        }
+        if (!proof.isDone()) {
+            // Por si el resolutor todavía no ha empezado
+            this.timeoutReached = true;
+            solver.stop();
+        }
+        try {
+            return proof.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            Logger.getLogger(PathOfMinMax.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Lanza la búsqueda durante el turno del rival sobre la posición que resulta de nuestra
+     * jugada y de la respuesta esperada.
+     * @param hgs  El estado del juego antes de nuestra jugada.
+     * @param move Nuestra jugada.
+     */
+    private void startPondering(HexGameStatus hgs, Point move) {
+        if (move == null || ybw != null) {
+            return;
+        }
+        HexGameStatus next = new HexGameStatus(hgs);
+        next.placeStone(move);
+        if (next.isGameOver()) {
+            return;
+        }
+        Point reply = expectedReply(move);
+        if (reply == null || next.getPos(reply) != 0) {
+            return;
+        }
+        next.placeStone(reply);
+        if (next.isGameOver()) {
+            return;
+        }
+        if (ponderPool == null) {
+            ponderPool = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name + "-ponder");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        // Se prepara aquí y no en el hilo para que stopPondering() no pueda llegar antes
+        this.deadline  = 0;
+        this.ponderKey = Zobrist.hash(next);
+        this.tt.newSearch();
+        prepare(next);
+        pondering = ponderPool.submit(() -> iterativeDeepening(board));
+    }
+
+    /**
+     * Retorna la respuesta del rival que la tabla de transposiciones da como mejor.
+     * @param move Nuestra jugada, sobre el tablero de la última búsqueda.
+     * @return     La respuesta, o {@code null} si la tabla no la tiene.
+     */
+    private Point expectedReply(Point move) {
+        int cell = move.x * boardSize + move.y;
+        if (board.getPos(cell) != 0) {
+            return null;
+        }
+        board.placeStone(cell);
+        long entry = tt.probe(board.hash());
+        board.undo();
+        int reply = entry != 0 ? TranspositionTable.move(entry) : -1;
+        return reply < 0 ? null : Utils.toPoint(reply, boardSize);
+    }
+
+    /**
+     * Detiene la búsqueda durante el turno del rival y espera a que acabe.
+     * @param hgs El estado del juego que llega a {@link #move(HexGameStatus)}, o {@code null}.
+     * @return    {@code true} si {@code hgs} es la posición que se estaba buscando.
+     */
+    private boolean stopPondering(HexGameStatus hgs) {
+        if (pondering == null) {
+            return false;
+        }
+        this.timeoutReached = true;
+        try {
+            pondering.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            Logger.getLogger(PathOfMinMax.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        pondering = null;
+        return hgs != null && hgs.getCurrentPlayer() == myType && Zobrist.hash(hgs) == ponderKey;
+    }
+
+    /**
+     * Avisa de que se ha acabado el tiempo de la jugada.
+     * <p>
+     * La búsqueda en curso se detiene y {@link #move(HexGameStatus)} retorna el mejor
+     * resultado completado hasta el momento.
      */
     @Override
     public void timeout() {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+        this.timeoutReached = true;
+        if (solving) {
+            solver.stop();
+        }
+    }
+
+    /**
+     * Consulta si hay que detener la búsqueda, ya sea por {@link #timeout()} o por
+     * el límite de tiempo interno.
+     * @return {@code true} si se ha acabado el tiempo.
+     */
+    boolean isTimeUp() {
+        if (!timeoutReached && deadline > 0 && System.currentTimeMillis() >= deadline) {
+            timeoutReached = true;
+        }
+        return timeoutReached;
     }
 
 
@@ -110,6 +844,79 @@ public class PathOfMinMax implements IPlayer, IAuto
     ////////////////////////////////   MINIMAX   /////////////////////////////////
     //////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Realiza iterative deepening: busca con {@link minmax} en profundidad 1, 2, 3...
+     * hasta que se acaba el tiempo.
+     * <p>
+     * El mejor movimiento de cada iteración se explora primero en la siguiente. Si una
+     * iteración se interrumpe, se descarta y se retorna la última completada.
+     * <p>
+     * En modo PVS cada iteración se busca primero con una ventana de aspiración alrededor
+     * del valor anterior. Si el valor cae fuera de la ventana, se amplía por ese lado y se
+     * repite la búsqueda.
+     * <p>
+     * Los hilos auxiliares de Lazy SMP con número impar empiezan una profundidad más
+     * abajo para que no recorran exactamente los mismos nodos que el hilo principal.
+     *
+     * @param t Tablero actual.
+     * @return  El mejor movimiento de la última profundidad completada.
+     */
+    private PlayerMove iterativeDeepening(SearchBoard t) {
+        PlayerMove bestMove = null;
+        int maxDepth = Math.min(depth, t.countEmptyCells());
+
+        for (int d = 1 + helperId % 2; d <= maxDepth; ++d) {
+            Point first = bestMove == null ? null : bestMove.getPoint();
+            int alpha = Integer.MIN_VALUE;
+            int beta  = Integer.MAX_VALUE;
+            long delta = ASPIRATION_WINDOW;
+            int prev  = rootValue;
+            if (pvs && bestMove != null) {
+                alpha = window(prev, -delta);
+                beta  = window(prev, delta);
+            }
+
+            PlayerMove ret = minmax(t, d, first, alpha, beta);
+            while (!timeoutReached) {
+                if (rootValue <= alpha && alpha != Integer.MIN_VALUE) {
+                    delta *= 2;
+                    alpha = window(prev, -delta);
+                } else if (rootValue >= beta && beta != Integer.MAX_VALUE) {
+                    delta *= 2;
+                    beta = window(prev, delta);
+                } else {
+                    break;
+                }
+                ret = minmax(t, d, first, alpha, beta);
+            }
+            if (ret.getPoint() != null) {
+                bestMove = ret;
+            }
+            if (timeoutReached) {
+                break;
+            }
+            // Si ya sabemos que la partida está decidida no hace falta seguir
+            if (rootValue == Integer.MAX_VALUE || rootValue == Integer.MIN_VALUE) {
+                break;
+            }
+        }
+        if (bestMove == null) {
+            bestMove = minmax(t, 0, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        return bestMove;
+    }
+
+    /**
+     * Calcula un extremo de la ventana de aspiración sin desbordar el rango de {@code int}.
+     * @param center Valor central de la ventana.
+     * @param delta  Desplazamiento respecto al centro.
+     * @return       {@code center + delta} saturado a [Integer.MIN_VALUE, Integer.MAX_VALUE].
+     */
+    private static int window(int center, long delta) {
+        long v = center + delta;
+        return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v));
+    }
+
     /**
      * Escoge el mejor movimiento donde colocaremos nuestra ficha.  
      * Primero probamos todos los movimientos desde la perspectiva MAX y 
@@ -120,30 +927,103 @@ public class PathOfMinMax implements IPlayer, IAuto
      * @return      Devuelve el movimiento óptimo que realizar según el tablero actual.
      */
     public PlayerMove minmax(HexGameStatus t, int depth) {
+        return minmax(new SearchBoard(t), depth, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Igual que {@link #minmax(HexGameStatus, int)}, pero explorando primero el movimiento
+     * {@code first} y con la ventana (alpha, beta) en la raíz.
+     * <p>
+     * El valor obtenido se guarda en {@code rootValue}. Si es menor o igual que
+     * {@code alpha} o mayor o igual que {@code beta} solo es una cota del valor real.
+     * <p>
+     * Si la búsqueda se interrumpe por tiempo, el resultado solo es válido si ya se había
+     * completado la búsqueda de {@code first}: en ese caso se retorna el mejor movimiento
+     * encontrado hasta entonces. En caso contrario se retorna un movimiento nulo.
+     *
+     * @param t     Tablero actual.
+     * @param depth Profundidad máxima del algoritmo minimax.
+     * @param first Movimiento a explorar primero, o {@code null}.
+     * @param alpha Extremo inferior de la ventana en la raíz.
+     * @param beta  Extremo superior de la ventana en la raíz.
+     * @return      Devuelve el movimiento óptimo que realizar según el tablero actual.
+     */
+    private PlayerMove minmax(SearchBoard t, int depth, Point first, int alpha, int beta) {
         // Si no hay movimientos posibles, no hacemos nada
-        List<MoveNode> moves = t.getMoves();
-        if (moves.isEmpty()) {
+        int[] moves = moves(0);
+        int n = t.getMoves(moves);
+        if (n == 0) {
             return new PlayerMove(null, numNodes, depth, SearchType.MINIMAX);
         }
+        if (inferior != null) {
+            n = inferior.prune(t, moves, n);
+        }
+        if (candidates != null) {
+            int keep = first != null ? first.x * t.getSize() + first.y : -1;
+            n = candidates.select(t, moves, n, 0, keep, ordering);
+        }
+        if (first != null) {
+            moveToFront(moves, n, first.x * t.getSize() + first.y);
+        }
+
+        if (ybw != null && depth > 0) {
+            int firstCell = first != null ? first.x * t.getSize() + first.y : -1;
+            int best = ybw.search(t, depth, firstCell, alpha, beta);
+            this.numNodes += ybw.takeNodes();
+            this.rootValue = ybw.getValue();
+            if (best < 0) {
+                best = first != null ? -1 : moves[0];
+            }
+            return new PlayerMove(best < 0 ? null : Utils.toPoint(best, t.getSize()),
+                                  numNodes, depth, SearchType.MINIMAX);
+        }
 
+        this.rootDepth = depth;
         int valor = Integer.MIN_VALUE;
-        Point p0 = moves.get(0).getPoint();
-        PlayerMove bestMove = new PlayerMove(p0, 0, 0, SearchType.MINIMAX);
+        PlayerMove bestMove = new PlayerMove(Utils.toPoint(moves[0], t.getSize()), 0, 0, SearchType.MINIMAX);
+        boolean searched = false;
 
         // Recorrer todas las opciones
-        for (MoveNode mn : moves) {
-            Point p = (Point)mn.getPoint().clone();
-            HexGameStatus newT = new HexGameStatus(t);
-            newT.placeStone(p);  // Jugamos nuestra ficha BF en p
+        for (int i = 0; i < n; ++i) {
+            int cell = moves[i];
+            t.placeStone(cell);  // Jugamos nuestra ficha BF en cell
 
-            int value = MIN(newT, depth - 1, Integer.MIN_VALUE, Integer.MAX_VALUE, p);
+            int value;
+            if (depth <= 0) {
+                value = Integer.MIN_VALUE;
+            } else if (!pvs) {
+                value = MIN(t, depth - 1, Integer.MIN_VALUE, Integer.MAX_VALUE, cell);
+            } else if (!searched) {
+                value = MIN(t, depth - 1, alpha, beta, cell);
+            } else {
+                // Ventana nula: solo comprobamos si mejora al mejor movimiento actual
+                value = MIN(t, depth - 1, alpha, alpha + 1, cell);
+                if (value > alpha && value < beta && !isTimeUp()) {
+                    value = MIN(t, depth - 1, alpha, beta, cell);
+                }
+            }
+            t.undo();
+            if (isTimeUp()) {
+                break;
+            }
+            searched = true;
 
             // Escoger el mejor
             if (value > valor) {
                 valor = value;
-                bestMove = new PlayerMove(p, numNodes, depth, SearchType.MINIMAX);
+                bestMove = new PlayerMove(Utils.toPoint(cell, t.getSize()), numNodes, depth, SearchType.MINIMAX);
+            }
+            if (pvs) {
+                alpha = Math.max(alpha, value);
+                if (alpha >= beta) {
+                    break;
+                }
             }
         }
+        this.rootValue = valor;
+        if (!searched && first != null) {
+            return new PlayerMove(null, numNodes, depth, SearchType.MINIMAX);
+        }
         return bestMove;
     }
 
@@ -156,10 +1036,10 @@ public class PathOfMinMax implements IPlayer, IAuto
      * @param beta  Valor de β (mejor opción de MIN hasta el momento).
      * @return      Devuelve el valor heurístico máximo de todos los movimientos posibles.
      */
-    private int MAX(HexGameStatus t, int depth, int alpha, int beta, Point lastPlayed) {
+    private int MAX(SearchBoard t, int depth, int alpha, int beta, int lastPlayed) {
         // Si se acabó la partida, evaluamos
         if (t.isGameOver()) {
-            PlayerType win = t.GetWinner();
+            PlayerType win = t.getWinner();
             if (win == myType) {
                 return Integer.MAX_VALUE;
             } else {
@@ -167,33 +1047,85 @@ public class PathOfMinMax implements IPlayer, IAuto
             }
         }
 
+        if (isTimeUp()) {
+            return 0;
+        }
+
+        // Consultamos la tabla de transposiciones
+        long hash = t.hash();
+        int alphaOrig = alpha;
+        int betaOrig  = beta;
+        int ttMove    = -1;
+        long entry = tt.probe(hash);
+        if (entry != 0) {
+            ttMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int ttValue = TranspositionTable.value(entry);
+                int flag    = TranspositionTable.flag(entry);
+                if (flag == TranspositionTable.EXACT
+                        || (flag == TranspositionTable.LOWER && ttValue >= beta)
+                        || (flag == TranspositionTable.UPPER && ttValue <= alpha)) {
+                    return ttValue;
+                }
+            }
+        }
+
         // Caso base: profundidad 0 o no hay más movimientos
-        if (depth == 0 || Utils.countEmptyCells(t) == 0) {
+        if (depth == 0 || t.countEmptyCells() == 0) {
             numNodes++;
-            return heuristic(t, myType, lastPlayed);
+            int h = evaluate(t, myType, lastPlayed);
+            if (!leafDependsOnPath()) {
+                tt.store(hash, 0, TranspositionTable.EXACT, h, -1);
+            }
+            return h;
         }
 
-        // Generamos todos los movimientos posibles
-        List<MoveNode> moves = t.getMoves();
-        // Si no hay movimientos, devolvemos la heurística
-        if (moves.isEmpty()) {
-            return heuristic(t, myType, lastPlayed);
+        // Generamos todos los movimientos posibles en el array de este nivel
+        int ply   = rootDepth - depth;
+        int[] moves = moves(ply);
+        int n = t.getMoves(moves);
+        if (inferior != null) {
+            n = inferior.prune(t, moves, n);
         }
+        if (candidates != null) {
+            n = candidates.select(t, moves, n, ply, ttMove, ordering);
+        }
+        // Probamos primero el mejor movimiento guardado en la tabla, luego los asesinos
+        // y el resto según la historia
+        int color = t.getCurrentColor();
+        ordering.sort(moves, n, ply, ttMove, color);
+        int bestMove = -1;
 
         // Recorremos cada movimiento y llamamos a MIN
-        for (MoveNode mn : moves) {
-            Point p = mn.getPoint();
-            HexGameStatus newT = new HexGameStatus(t);
-            newT.placeStone(p);
+        for (int i = 0; i < n; ++i) {
+            int cell = moves[i];
+            t.placeStone(cell);
 
-            int val = MIN(newT, depth - 1, alpha, beta, p);
+            int val;
+            if (!pvs || bestMove < 0) {
+                val = MIN(t, depth - 1, alpha, beta, cell);
+            } else {
+                val = MIN(t, depth - 1, alpha, alpha + 1, cell);
+                if (val > alpha && val < beta && !timeoutReached) {
+                    val = MIN(t, depth - 1, alpha, beta, cell);
+                }
+            }
+            t.undo();
 
+            if (timeoutReached) {
+                return 0;
+            }
+            if (bestMove < 0 || val > alpha) {
+                bestMove = cell;
+            }
             alpha = Math.max(alpha, val);
             // Poda
             if (alpha >= beta) {
+                ordering.cutoff(ply, cell, depth, color);
                 break;
             }
         }
+        storeBound(hash, depth, alpha, alphaOrig, betaOrig, bestMove);
         return alpha;
     }
 
@@ -206,10 +1138,10 @@ public class PathOfMinMax implements IPlayer, IAuto
      * @param beta  Valor de β (mejor opción de MIN hasta el momento).
      * @return      Devuelve el valor heurístico mínimo de todos los movimientos posibles.
      */
-    private int MIN(HexGameStatus t, int depth, int alpha, int beta, Point lastPlayed) {
+    private int MIN(SearchBoard t, int depth, int alpha, int beta, int lastPlayed) {
         // Si se acabó la partida, evaluamos
         if (t.isGameOver()) {
-            PlayerType win = t.GetWinner();
+            PlayerType win = t.getWinner();
             if (win == myType) {
                 return Integer.MAX_VALUE;
             } else {
@@ -217,36 +1149,217 @@ public class PathOfMinMax implements IPlayer, IAuto
             }
         }
 
+        if (isTimeUp()) {
+            return 0;
+        }
+
+        // Consultamos la tabla de transposiciones
+        long hash = t.hash();
+        int alphaOrig = alpha;
+        int betaOrig  = beta;
+        int ttMove    = -1;
+        long entry = tt.probe(hash);
+        if (entry != 0) {
+            ttMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int ttValue = TranspositionTable.value(entry);
+                int flag    = TranspositionTable.flag(entry);
+                if (flag == TranspositionTable.EXACT
+                        || (flag == TranspositionTable.LOWER && ttValue >= beta)
+                        || (flag == TranspositionTable.UPPER && ttValue <= alpha)) {
+                    return ttValue;
+                }
+            }
+        }
+
         // Caso base: profundidad 0 o no hay más movimientos
-        if (depth == 0 || Utils.countEmptyCells(t) == 0) {
+        if (depth == 0 || t.countEmptyCells() == 0) {
             numNodes++;
-            return heuristic(t, enemyType, lastPlayed);
+            int h = evaluate(t, enemyType, lastPlayed);
+            if (!leafDependsOnPath()) {
+                tt.store(hash, 0, TranspositionTable.EXACT, h, -1);
+            }
+            return h;
         }
 
-        // Generamos todos los movimientos posibles
-        List<MoveNode> moves = t.getMoves();
-        // Si no hay movimientos, devolvemos la heurística
-        if (moves.isEmpty()) {
-            return heuristic(t, enemyType, lastPlayed);
+        // Generamos todos los movimientos posibles en el array de este nivel
+        int ply   = rootDepth - depth;
+        int[] moves = moves(ply);
+        int n = t.getMoves(moves);
+        if (inferior != null) {
+            n = inferior.prune(t, moves, n);
         }
+        if (candidates != null) {
+            n = candidates.select(t, moves, n, ply, ttMove, ordering);
+        }
+        // Probamos primero el mejor movimiento guardado en la tabla, luego los asesinos
+        // y el resto según la historia
+        int color = t.getCurrentColor();
+        ordering.sort(moves, n, ply, ttMove, color);
+        int bestMove = -1;
 
         // Recorremos cada movimiento y llamamos a MAX
-        for (MoveNode mn : moves) {
-            Point p = mn.getPoint();
-            HexGameStatus newT = new HexGameStatus(t);
-            newT.placeStone(p);
+        for (int i = 0; i < n; ++i) {
+            int cell = moves[i];
+            t.placeStone(cell);
 
-            int val = MAX(newT, depth - 1, alpha, beta, p);
+            int val;
+            if (!pvs || bestMove < 0) {
+                val = MAX(t, depth - 1, alpha, beta, cell);
+            } else {
+                val = MAX(t, depth - 1, beta - 1, beta, cell);
+                if (val < beta && val > alpha && !timeoutReached) {
+                    val = MAX(t, depth - 1, alpha, beta, cell);
+                }
+            }
+            t.undo();
 
+            if (timeoutReached) {
+                return 0;
+            }
+            if (bestMove < 0 || val < beta) {
+                bestMove = cell;
+            }
             beta = Math.min(beta, val);
             // Poda
             if (alpha >= beta) {
+                ordering.cutoff(ply, cell, depth, color);
                 break;
             }
         }
+        storeBound(hash, depth, beta, alphaOrig, betaOrig, bestMove);
         return beta;
     }
 
+    /**
+     * Guarda en la tabla de transposiciones el valor de un nodo junto con el tipo de cota
+     * que representa respecto a la ventana (alpha, beta) con la que se buscó.
+     *
+     * @param hash      Hash de Zobrist del nodo.
+     * @param depth     Profundidad restante del nodo.
+     * @param value     Valor retornado por el nodo.
+     * @param alphaOrig Valor de α al entrar en el nodo.
+     * @param betaOrig  Valor de β al entrar en el nodo.
+     * @param bestMove  Mejor movimiento encontrado como índice {@code x * size + y}.
+     */
+    private void storeBound(long hash, int depth, int value, int alphaOrig, int betaOrig, int bestMove) {
+        int flag;
+        if (value <= alphaOrig) {
+            flag = TranspositionTable.UPPER;
+        } else if (value >= betaOrig) {
+            flag = TranspositionTable.LOWER;
+        } else {
+            flag = TranspositionTable.EXACT;
+        }
+        tt.store(hash, depth, flag, value, bestMove);
+    }
+
+    /**
+     * Mueve al principio del array el movimiento indicado, si está en él, manteniendo el
+     * orden del resto.
+     * @param moves Movimientos como índice {@code x * size + y}.
+     * @param n     Número de movimientos en {@code moves}.
+     * @param cell  Movimiento a mover.
+     */
+    private static void moveToFront(int[] moves, int n, int cell) {
+        for (int i = 0; i < n; ++i) {
+            if (moves[i] == cell) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = cell;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evalúa una hoja con la evaluación escogida en {@link #setEvaluation(Evaluation)}.
+     * <p>
+     * Todas las evaluaciones salvo {@link Evaluation#DIJKSTRA} son simétricas y se calculan
+     * desde el punto de vista de {@code myType}; la heurística de Dijkstra evalúa el camino
+     * de {@code player}.
+     * @param t          El tablero de búsqueda.
+     * @param player     El jugador que ha hecho la última jugada.
+     * @param lastPlayed La última ficha jugada.
+     * @return           El valor de la hoja desde el punto de vista de {@code myType}.
+     */
+    private int evaluate(SearchBoard t, PlayerType player, int lastPlayed) {
+        if (evalCache == null) {
+            return evaluateLeaf(t, player, lastPlayed);
+        }
+        boolean dependsOnPath = leafDependsOnPath();
+        long key = EvaluationCache.key(t.hash(),
+                                       (dependsOnPath ? player : myType) == PlayerType.PLAYER1,
+                                       myType == PlayerType.PLAYER1,
+                                       dependsOnPath ? lastPlayed : -1);
+        long entry = evalCache.probe(key);
+        if (entry != 0) {
+            return EvaluationCache.value(entry);
+        }
+        int h = evaluateLeaf(t, player, lastPlayed);
+        evalCache.store(key, h);
+        return h;
+    }
+
+    /**
+     * Consulta si el valor de una hoja depende de la última ficha jugada y no solo de la
+     * posición, como con {@link Evaluation#DIJKSTRA}. Estas hojas no se guardan en la tabla
+     * de transposiciones, cuya clave es solo el hash: dos órdenes de jugadas que llegan a
+     * la misma posición compartirían el valor. Los nodos interiores sí se guardan, porque
+     * su valor sale de hojas de su propio subárbol.
+     * @return {@code true} si la evaluación depende del camino.
+     */
+    private boolean leafDependsOnPath() {
+        return evaluation == Evaluation.DIJKSTRA;
+    }
+
+    /**
+     * Calcula la evaluación de una hoja, sin pasar por la caché.
+     * @param t          El tablero de búsqueda.
+     * @param player     El jugador que ha hecho la última jugada.
+     * @param lastPlayed La última ficha jugada.
+     * @return           El valor de la hoja desde el punto de vista de {@code myType}.
+     */
+    private int evaluateLeaf(SearchBoard t, PlayerType player, int lastPlayed) {
+        switch (evaluation) {
+            case TWO_DISTANCE:
+                return twoDist.evaluate(t, myType);
+            case RESISTANCE:
+                return resistance.evaluate(t, myType);
+            case EDGE_TO_EDGE:
+                return dijkstra.connectionCost(t, enemyType) - dijkstra.connectionCost(t, myType);
+            case VIRTUAL_CONNECTIONS:
+                return dijkstra.connectionCost(t, enemyType, vc) - dijkstra.connectionCost(t, myType, vc);
+            default:
+                if (distances != null)
+                    return incrementalHeuristic(t, player, lastPlayed);
+                return heuristic(dijkstra, t, player, lastPlayed);
+        }
+    }
+
+    /**
+     * Igual que {@link #heuristic(Dijkstra, SearchBoard, PlayerType, int)} pero con el
+     * camino que da {@link IncrementalDistances}, sin recalcular las distancias.
+     * @param board      El tablero de búsqueda, con {@link #distances} como receptor.
+     * @param player     El jugador que hace la consulta.
+     * @param lastPlayed Es la última pieza jugada en una simulación.
+     * @return           El coste de una jugada.
+     */
+    private int incrementalHeuristic(SearchBoard board, PlayerType player, int lastPlayed) {
+        int playerColor = PlayerType.getColor(player);
+        int n = distances.path(board, playerColor, lastPlayed, pathBuf);
+        int score = 0;
+        for (int i = 0; i < n; ++i) {
+            int color = board.getPos(pathBuf[i]);
+            if (color == playerColor)
+                score += 350;
+            else if (color == -playerColor)
+                score -= 400;
+        }
+        if (player == enemyType)
+            score = -score;
+        return score;
+    }
+
     /**
      * Retorna el coste mínimo de una jugada para un jugador determinado.
      * <p>
@@ -268,33 +1381,40 @@ public class PathOfMinMax implements IPlayer, IAuto
      * @see Dijkstra#makePath(HexGameStatus, int[][], PlayerType)
      */
     public int heuristic(HexGameStatus board, PlayerType player, Point lastPlayed) {
-        List<Point> path = this.dijkstra.dijkstra(board, player, lastPlayed);
+        return heuristic(this.dijkstra, new SearchBoard(board), player,
+                         Utils.cell(lastPlayed.x, lastPlayed.y, board.getSize()));
+    }
+
+    /**
+     * Igual que {@link #heuristic(HexGameStatus, PlayerType, Point)} pero sobre el tablero
+     * de búsqueda y con una instancia de {@link Dijkstra} concreta, para poder evaluar desde
+     * varios hilos a la vez.
+     * @param dijkstra   La instancia de {@link Dijkstra} a usar.
+     * @param board      El tablero de búsqueda.
+     * @param player     El jugador que hace la consulta.
+     * @param lastPlayed Es la última pieza jugada en una simulación, como índice
+     *                   {@code x * size + y}.
+     * @return           El coste de una jugada.
+     */
+    int heuristic(Dijkstra dijkstra, SearchBoard board, PlayerType player, int lastPlayed) {
+        int length = dijkstra.dijkstra(board, player, lastPlayed);
         int score = 0;
 
-        if (path == null) {
+        if (length < 0) {
             // System.out.println("Path is null!");
             return (player == myType ? Integer.MIN_VALUE : Integer.MAX_VALUE);
         }
 
-        int playerColor = PlayerType.getColor(player);
-        int enemyColor  = PlayerType.getColor(PlayerType.opposite(player));
-        // int cost = dijkstra.getCostOfPath(path);
+        // int cost = dijkstra.getCostOfPath(dijkstra.getPath(), length);
 
-        for (Point p: path) {
-            int color = board.getPos(p);
-            if (color == playerColor)
-                score += 350;
-            if (color == enemyColor) {
-                score -= 400;
-            }
-        }
+        score = 350 * dijkstra.getPathOwn() - 400 * dijkstra.getPathEnemy();
         // score = score - cost;
         if (player == enemyType)
             score = score * (-1);
         // if (score == 0)
         //     System.out.printf("Score for player %s placed on [%d, %d]: %d\n",
         //                     player == PlayerType.PLAYER1 ? "PLAYER1" : "PLAYER2",
-        //                     (int)lastPlayed.getX(), (int)lastPlayed.getY(), score);
+        //                     lastPlayed / boardSize, lastPlayed % boardSize, score);
         return score;
     }
 }
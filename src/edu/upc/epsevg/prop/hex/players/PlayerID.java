@@ -2,9 +2,10 @@ package edu.upc.epsevg.prop.hex.players;
 
 import edu.upc.epsevg.prop.hex.*;
 import edu.upc.epsevg.prop.hex.heuristic.Dijkstra;
+import edu.upc.epsevg.prop.hex.heuristic.InferiorCells;
 
 import java.awt.Point;
-import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Clase que implementa el algoritmo MinMax con la poda alpha-beta para determinar la mejor jugada en Hex.
@@ -14,9 +15,27 @@ public class PlayerID implements IPlayer, IAuto {
     private PlayerType myType, enemyType;
     private int boardSize;
     private Dijkstra dijkstra;
+    private EvaluationCache evalCache;
+    private InferiorCells inferior;
+    private boolean inferiorCells;
+    private CandidateGenerator candidates;
+    private OpeningBook book;
+    private DfpnSolver solver;
+    private int solverCells;
+    private volatile boolean solving;
+    private SearchBoard board;
+    private int[][] moveBuf;
+    private MoveOrdering ordering = new MoveOrdering();
+    private int rootDepth;
+    private int lastValue;
+
+    /**
+     * Semiamplitud inicial de la ventana de aspiración.
+     */
+    private static final int ASPIRATION_WINDOW = 400;
 
     private long numNodes;
-    private boolean timeoutReached;
+    private volatile boolean timeoutReached;
 
     /**
      * Constructor de la clase PathOfMinMax.
@@ -27,6 +46,64 @@ public class PlayerID implements IPlayer, IAuto {
         this.timeoutReached = false; // Control de timeout
     }
 
+    /**
+     * Pone una caché de evaluaciones delante de la heurística de las hojas. La clave
+     * incluye la última ficha jugada, porque la heurística depende de ella. La caché se
+     * mantiene entre jugadas y se vacía al cambiar el tamaño del tablero.
+     * @param gigabytes Memoria máxima de la caché en gigabytes. Con {@code 0} no se usa caché.
+     *
+     * @see EvaluationCache
+     */
+    public void setEvaluationCache(float gigabytes) {
+        this.evalCache = gigabytes > 0 ? new EvaluationCache(gigabytes) : null;
+    }
+
+    /**
+     * Activa o desactiva el análisis de casillas inferiores: antes de buscar se rellenan
+     * las casillas muertas y capturadas, y en cada nodo se quitan de los movimientos.
+     * @param inferiorCells {@code true} para podar las casillas inferiores.
+     *
+     * @see InferiorCells
+     */
+    public void setInferiorCells(boolean inferiorCells) {
+        this.inferiorCells = inferiorCells;
+    }
+
+    /**
+     * Activa la poda hacia delante: en cada nodo solo se buscan los movimientos que escoge
+     * el generador. La búsqueda deja de ser exacta, pero llega más hondo.
+     * @param factory Crea el generador, por ejemplo {@code () -> new PathCandidates(0, 0, 10)},
+     *                o {@code null} para buscar todos los movimientos.
+     *
+     * @see CandidateGenerator
+     */
+    public void setCandidates(Supplier<? extends CandidateGenerator> factory) {
+        this.candidates = factory != null ? factory.get() : null;
+    }
+
+    /**
+     * Usa un libro de aperturas: las posiciones del libro se juegan sin buscar.
+     * @param book El libro, o {@code null} para buscar siempre.
+     *
+     * @see OpeningBook
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Usa un resolutor df-pn cuando quedan pocas casillas vacías: antes de buscar se
+     * intenta demostrar quién gana y, si ganamos, se juega la jugada ganadora sin buscar.
+     * @param solver        El resolutor, o {@code null} para no usarlo.
+     * @param maxEmptyCells Número máximo de casillas vacías para usar el resolutor.
+     *
+     * @see DfpnSolver
+     */
+    public void setSolver(DfpnSolver solver, int maxEmptyCells) {
+        this.solver = solver;
+        this.solverCells = maxEmptyCells;
+    }
+
     /**
      * Retorna el nombre asignado del bot.
      * @return Nombre del bot.
@@ -44,18 +121,62 @@ public class PlayerID implements IPlayer, IAuto {
      */
     @Override
     public PlayerMove move(HexGameStatus hgs) {
+        // Antes del libro y del resolutor, para no perder un timeout que llegue durante ellos
+        this.timeoutReached = false;
+        if (book != null) {
+            Point p = book.move(hgs);
+            if (p != null) {
+                return new PlayerMove(p, 0, 0, SearchType.MINIMAX);
+            }
+        }
+        if (solver != null && Utils.countEmptyCells(hgs) <= solverCells) {
+            this.solving = true;
+            // Un timeout anterior a solving no llega al resolutor
+            PlayerType winner = timeoutReached ? null : solver.solve(hgs);
+            this.solving = false;
+            if (winner == hgs.getCurrentPlayer()) {
+                return new PlayerMove(solver.getWinningMove(), solver.getNodes(), 0, SearchType.MINIMAX);
+            }
+        }
         this.myType = hgs.getCurrentPlayer();
+        if (hgs.getSize() != this.boardSize && this.evalCache != null) {
+            // Las claves no distinguen el tamaño del tablero
+            this.evalCache.clear();
+        }
         this.boardSize = hgs.getSize();
         this.enemyType = PlayerType.opposite(myType);
-        this.dijkstra = new Dijkstra(this.boardSize);
+        if (this.dijkstra == null || this.dijkstra.getBoardSize() != this.boardSize) {
+            this.dijkstra = new Dijkstra(this.boardSize);
+        }
+        this.board = new SearchBoard(hgs);
+        if (inferiorCells) {
+            if (this.inferior == null || this.inferior.getBoardSize() != this.boardSize) {
+                this.inferior = new InferiorCells(this.boardSize);
+            }
+            this.inferior.fillIn(this.board);
+            // Si el relleno decide la partida buscamos sobre el tablero real
+            if (this.board.isGameOver() && !hgs.isGameOver()) {
+                this.board = new SearchBoard(hgs);
+            }
+        } else {
+            this.inferior = null;
+        }
+        this.moveBuf = new int[this.boardSize * this.boardSize + 1][];
+        this.ordering.newSearch(this.boardSize);
 
         PlayerMove bestMove = null;
 
         // Iterative Deepening: Incrementa la profundidad hasta que se alcance el timeout
         for (int currentDepth = 1; !timeoutReached; currentDepth++) {
-            bestMove = iterativeDeepening(hgs, currentDepth, bestMove);
+            bestMove = iterativeDeepening(board, currentDepth, bestMove);
         }
 
+        // El tiempo se acabó en el resolutor o antes de completar la primera iteración
+        if (bestMove == null) {
+            int[] moves = moves(0);
+            int n = board.getMoves(moves);
+            bestMove = new PlayerMove(n > 0 ? Utils.toPoint(moves[0], boardSize) : null, numNodes, 0, SearchType.MINIMAX);
+        }
         return bestMove;
     }
 
@@ -65,38 +186,114 @@ public class PlayerID implements IPlayer, IAuto {
     @Override
     public void timeout() {
         this.timeoutReached = true; // Indica que se ha alcanzado el tiempo límite
+        if (solving) {
+            solver.stop();
+        }
     }
 
     /**
      * Realiza iterative deepening aumentando la profundidad de búsqueda.
+     * <p>
+     * A partir de la segunda iteración se busca primero con una ventana de aspiración
+     * centrada en el valor de la iteración anterior, ampliándola si el valor cae fuera.
+     *
+     * @param hgs Estado actual del tablero.
+     * @param depth Profundidad actual a analizar.
+     * @param lastBest Última mejor jugada encontrada.
+     * @return La mejor jugada encontrada para esta profundidad.
+     */
+    private PlayerMove iterativeDeepening(SearchBoard hgs, int depth, PlayerMove lastBest) {
+        if (lastBest == null) {
+            return searchRoot(hgs, depth, lastBest, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        int prev = lastValue;
+        long delta = ASPIRATION_WINDOW;
+        int alpha = window(prev, -delta);
+        int beta  = window(prev, delta);
+        PlayerMove bestMove = searchRoot(hgs, depth, lastBest, alpha, beta);
+        while (!timeoutReached) {
+            if (lastValue <= alpha && alpha != Integer.MIN_VALUE) {
+                delta *= 2;
+                alpha = window(prev, -delta);
+            } else if (lastValue >= beta && beta != Integer.MAX_VALUE) {
+                delta *= 2;
+                beta = window(prev, delta);
+            } else {
+                break;
+            }
+            bestMove = searchRoot(hgs, depth, lastBest, alpha, beta);
+        }
+        return bestMove;
+    }
+
+    private static int window(int center, long delta) {
+        return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, center + delta));
+    }
+
+    /**
+     * Busca la mejor jugada en la raíz con Principal Variation Search: el primer movimiento
+     * se busca con la ventana (alpha, beta) y el resto con una ventana nula.
      *
      * @param hgs Estado actual del tablero.
      * @param depth Profundidad actual a analizar.
      * @param lastBest Última mejor jugada encontrada.
+     * @param alpha Extremo inferior de la ventana.
+     * @param beta Extremo superior de la ventana.
      * @return La mejor jugada encontrada para esta profundidad.
      */
-    private PlayerMove iterativeDeepening(HexGameStatus hgs, int depth, PlayerMove lastBest) {
+    private PlayerMove searchRoot(SearchBoard hgs, int depth, PlayerMove lastBest, int alpha, int beta) {
         PlayerMove bestMove = lastBest;
         int bestValue = Integer.MIN_VALUE;
 
-        List<MoveNode> moves = hgs.getMoves();
-        if (moves.isEmpty()) {
+        int[] moves = moves(0);
+        int n = hgs.getMoves(moves);
+        if (n == 0) {
             return new PlayerMove(null, numNodes, depth, SearchType.MINIMAX);
         }
+        if (inferior != null) {
+            n = inferior.prune(hgs, moves, n);
+        }
+        this.rootDepth = depth;
+
+        // La mejor jugada de la iteración anterior (variante principal) va primero
+        int pv = -1;
+        if (lastBest != null && lastBest.getPoint() != null) {
+            pv = lastBest.getPoint().x * boardSize + lastBest.getPoint().y;
+        }
+        if (candidates != null) {
+            n = candidates.select(hgs, moves, n, 0, pv, ordering);
+        }
+        ordering.sort(moves, n, 0, pv, PlayerType.getColor(myType));
 
-        for (MoveNode mn : moves) {
+        boolean first = true;
+        for (int i = 0; i < n; ++i) {
             if (timeoutReached) break;
 
-            Point p = mn.getPoint();
-            HexGameStatus newT = new HexGameStatus(hgs);
-            newT.placeStone(p);
+            int cell = moves[i];
+            hgs.placeStone(cell);
+
+            int value;
+            if (first) {
+                value = MIN(hgs, depth - 1, alpha, beta, cell);
+            } else {
+                value = MIN(hgs, depth - 1, alpha, alpha + 1, cell);
+                if (value > alpha && value < beta) {
+                    value = MIN(hgs, depth - 1, alpha, beta, cell);
+                }
+            }
+            hgs.undo();
+            // Un valor obtenido tras el timeout no es fiable
+            if (timeoutReached) break;
+            first = false;
 
-            int value = MIN(newT, depth - 1, Integer.MIN_VALUE, Integer.MAX_VALUE, p);
             if (value > bestValue) {
                 bestValue = value;
-                bestMove = new PlayerMove(p, numNodes, depth, SearchType.MINIMAX);
+                bestMove = new PlayerMove(Utils.toPoint(cell, boardSize), numNodes, depth, SearchType.MINIMAX);
             }
+            alpha = Math.max(alpha, value);
+            if (alpha >= beta) break;
         }
+        lastValue = bestValue;
 
         return bestMove;
     }
@@ -105,83 +302,157 @@ public class PlayerID implements IPlayer, IAuto {
     ////////////////////////////////   MINIMAX   /////////////////////////////////
     //////////////////////////////////////////////////////////////////////////////
 
-    private int MAX(HexGameStatus t, int depth, int alpha, int beta, Point lastPlayed) {
+    private int MAX(SearchBoard t, int depth, int alpha, int beta, int lastPlayed) {
         if (timeoutReached) return 0;
 
         if (t.isGameOver()) {
-            PlayerType win = t.GetWinner();
+            PlayerType win = t.getWinner();
             return win == myType ? Integer.MAX_VALUE : Integer.MIN_VALUE;
         }
 
         if (depth == 0) {
             numNodes++;
-            return heuristic(t, myType, lastPlayed);
+            return evaluate(t, myType, lastPlayed);
         }
 
         int maxVal = Integer.MIN_VALUE;
 
-        for (MoveNode mn : t.getMoves()) {
-            Point p = mn.getPoint();
-            HexGameStatus newT = new HexGameStatus(t);
-            newT.placeStone(p);
-
-            int val = MIN(newT, depth - 1, alpha, beta, p);
+        int ply = rootDepth - depth;
+        int[] moves = moves(ply);
+        int n = t.getMoves(moves);
+        if (inferior != null) {
+            n = inferior.prune(t, moves, n);
+        }
+        int color = t.getCurrentColor();
+        if (candidates != null) {
+            n = candidates.select(t, moves, n, ply, -1, ordering);
+        }
+        ordering.sort(moves, n, ply, -1, color);
+
+        for (int i = 0; i < n; ++i) {
+            int cell = moves[i];
+            t.placeStone(cell);
+
+            int val;
+            if (maxVal == Integer.MIN_VALUE) {
+                val = MIN(t, depth - 1, alpha, beta, cell);
+            } else {
+                val = MIN(t, depth - 1, alpha, alpha + 1, cell);
+                if (val > alpha && val < beta) {
+                    val = MIN(t, depth - 1, alpha, beta, cell);
+                }
+            }
+            t.undo();
             maxVal = Math.max(maxVal, val);
 
             alpha = Math.max(alpha, maxVal);
-            if (alpha >= beta) break;
+            if (alpha >= beta) {
+                ordering.cutoff(ply, cell, depth, color);
+                break;
+            }
         }
 
         return maxVal;
     }
 
-    private int MIN(HexGameStatus t, int depth, int alpha, int beta, Point lastPlayed) {
+    private int MIN(SearchBoard t, int depth, int alpha, int beta, int lastPlayed) {
         if (timeoutReached) return 0;
 
         if (t.isGameOver()) {
-            PlayerType win = t.GetWinner();
+            PlayerType win = t.getWinner();
             return win == myType ? Integer.MAX_VALUE : Integer.MIN_VALUE;
         }
 
         if (depth == 0) {
             numNodes++;
-            return heuristic(t, enemyType, lastPlayed);
+            return evaluate(t, enemyType, lastPlayed);
         }
 
         int minVal = Integer.MAX_VALUE;
 
-        for (MoveNode mn : t.getMoves()) {
-            Point p = mn.getPoint();
-            HexGameStatus newT = new HexGameStatus(t);
-            newT.placeStone(p);
-
-            int val = MAX(newT, depth - 1, alpha, beta, p);
+        int ply = rootDepth - depth;
+        int[] moves = moves(ply);
+        int n = t.getMoves(moves);
+        if (inferior != null) {
+            n = inferior.prune(t, moves, n);
+        }
+        int color = t.getCurrentColor();
+        if (candidates != null) {
+            n = candidates.select(t, moves, n, ply, -1, ordering);
+        }
+        ordering.sort(moves, n, ply, -1, color);
+
+        for (int i = 0; i < n; ++i) {
+            int cell = moves[i];
+            t.placeStone(cell);
+
+            int val;
+            if (minVal == Integer.MAX_VALUE) {
+                val = MAX(t, depth - 1, alpha, beta, cell);
+            } else {
+                val = MAX(t, depth - 1, beta - 1, beta, cell);
+                if (val < beta && val > alpha) {
+                    val = MAX(t, depth - 1, alpha, beta, cell);
+                }
+            }
+            t.undo();
             minVal = Math.min(minVal, val);
 
             beta = Math.min(beta, minVal);
-            if (alpha >= beta) break;
+            if (alpha >= beta) {
+                ordering.cutoff(ply, cell, depth, color);
+                break;
+            }
         }
 
         return minVal;
     }
 
+    /**
+     * Retorna el array de movimientos de un nivel de la búsqueda, reutilizado entre los
+     * nodos del mismo nivel.
+     * @param ply Nivel del nodo respecto a la raíz.
+     * @return    Array con espacio para todas las casillas del tablero.
+     */
+    private int[] moves(int ply) {
+        if (moveBuf[ply] == null) {
+            moveBuf[ply] = new int[boardSize * boardSize];
+        }
+        return moveBuf[ply];
+    }
+
+    /**
+     * Evalúa una hoja, consultando antes la caché de evaluaciones si la hay.
+     */
+    private int evaluate(SearchBoard t, PlayerType player, int lastPlayed) {
+        if (evalCache == null) {
+            return heuristic(t, player, lastPlayed);
+        }
+        long key = EvaluationCache.key(t.hash(), player == PlayerType.PLAYER1, myType == PlayerType.PLAYER1,
+                                       lastPlayed);
+        long entry = evalCache.probe(key);
+        if (entry != 0) {
+            return EvaluationCache.value(entry);
+        }
+        int h = heuristic(t, player, lastPlayed);
+        evalCache.store(key, h);
+        return h;
+    }
+
     /**
      * Heurística mejorada para evaluar el tablero.
      */
     public int heuristic(HexGameStatus board, PlayerType player, Point lastPlayed) {
-        List<Point> path = this.dijkstra.dijkstra(board, player, lastPlayed);
-        if (path == null) return player == myType ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        return heuristic(new SearchBoard(board), player,
+                         Utils.cell(lastPlayed.x, lastPlayed.y, board.getSize()));
+    }
 
-        int score = 0;
-        int playerColor = PlayerType.getColor(player);
-        int enemyColor = PlayerType.getColor(PlayerType.opposite(player));
-        int cost = dijkstra.getCostOfPath(path);
+    private int heuristic(SearchBoard board, PlayerType player, int lastPlayed) {
+        int length = this.dijkstra.dijkstra(board, player, lastPlayed);
+        if (length < 0) return player == myType ? Integer.MIN_VALUE : Integer.MAX_VALUE;
 
-        for (Point p : path) {
-            int color = board.getPos(p);
-            if (color == playerColor) score += 350;
-            else if (color == enemyColor) score -= 400;
-        }
+        int cost = dijkstra.getCostOfPath(dijkstra.getPath(), length);
+        int score = 350 * dijkstra.getPathOwn() - 400 * dijkstra.getPathEnemy();
 
         return score / cost;
     }
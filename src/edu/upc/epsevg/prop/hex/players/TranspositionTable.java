@@ -0,0 +1,168 @@
+package edu.upc.epsevg.prop.hex.players;
+
+import java.util.Arrays;
+
+/**
+ * Tabla de transposiciones para la búsqueda alpha-beta indexada por un hash de Zobrist.
+ * <p>
+ * Cada entrada guarda en un único {@code long} el valor, la profundidad con la que se
+ * calculó, el tipo de cota ({@link #EXACT}, {@link #LOWER} o {@link #UPPER}), la generación
+ * de búsqueda y el mejor movimiento (como índice {@code x * size + y}).
+ * <p>
+ * Las entradas se agrupan en cubetas de dos posiciones: la primera se reemplaza solo por
+ * búsquedas de igual o mayor profundidad (o si la entrada es de una búsqueda anterior) y la
+ * segunda se reemplaza siempre.
+ * <p>
+ * La tabla se puede compartir entre varios hilos sin bloqueos: junto a cada entrada se guarda
+ * {@code hash ^ entrada} en lugar del hash. Si dos hilos escriben a la vez la misma posición,
+ * la comprobación del XOR en {@link #probe(long)} falla y la entrada se trata como ausente.
+ *
+ * @author kmalhal
+ * @author jmoreno
+ */
+public class TranspositionTable {
+    /** El valor guardado es exacto. */
+    public static final int EXACT = 1;
+    /** El valor guardado es una cota inferior (hubo poda beta). */
+    public static final int LOWER = 2;
+    /** El valor guardado es una cota superior (ningún movimiento superó alpha). */
+    public static final int UPPER = 3;
+
+    private static final int ENTRY_BYTES = 16;
+
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+    private int age;
+
+    /**
+     * Constructor de la clase {@link TranspositionTable}.
+     * @param sizeMB Memoria máxima de la tabla en megabytes. Con {@code 0} la tabla queda
+     *               desactivada: no guarda nada y todas las consultas fallan.
+     */
+    public TranspositionTable(int sizeMB) {
+        long entries = sizeMB > 0 ? Math.max(2, ((long)sizeMB << 20) / ENTRY_BYTES) : 0;
+        int capacity = entries > 0 ? Integer.highestOneBit((int)Math.min(entries, 1 << 30)) : 0;
+        this.keys = new long[capacity];
+        this.data = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Marca el inicio de una nueva búsqueda. Las entradas de búsquedas anteriores pasan
+     * a ser las primeras candidatas a ser reemplazadas.
+     */
+    public void newSearch() {
+        age = (age + 1) & 0x3F;
+    }
+
+    /**
+     * Vacía la tabla.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+    }
+
+    /**
+     * Consulta una posición en la tabla.
+     * @param key Hash de la posición.
+     * @return    La entrada empaquetada, o {@code 0} si la posición no está en la tabla.
+     *
+     * @see #value(long)
+     * @see #depth(long)
+     * @see #flag(long)
+     * @see #move(long)
+     */
+    public long probe(long key) {
+        if (mask < 0)
+            return 0;
+        int i = (int)key & mask & ~1;
+        long d = data[i];
+        if (d != 0 && (keys[i] ^ d) == key)
+            return d;
+        d = data[i + 1];
+        if (d != 0 && (keys[i + 1] ^ d) == key)
+            return d;
+        return 0;
+    }
+
+    /**
+     * Guarda el resultado de la búsqueda de una posición.
+     * @param key   Hash de la posición.
+     * @param depth Profundidad restante con la que se ha buscado.
+     * @param flag  Tipo de cota: {@link #EXACT}, {@link #LOWER} o {@link #UPPER}.
+     * @param value Valor de la posición.
+     * @param move  Mejor movimiento como índice {@code x * size + y}, o {@code -1} si no hay.
+     */
+    public void store(long key, int depth, int flag, int value, int move) {
+        if (mask < 0)
+            return;
+        int i = (int)key & mask & ~1;
+        long d0 = data[i];
+        long d1 = data[i + 1];
+        boolean in0 = d0 != 0 && (keys[i] ^ d0) == key;
+        boolean in1 = d1 != 0 && (keys[i + 1] ^ d1) == key;
+        int slot;
+        long old;
+        if (in0 || d0 == 0 || depth >= depth(d0) || ageOf(d0) != age) {
+            slot = i;
+            old  = in0 ? d0 : 0;
+            // Si la posición ya estaba en la otra cubeta la dejamos vacía para no duplicarla
+            if (!in0 && in1)
+                data[i + 1] = 0;
+        } else {
+            slot = i + 1;
+            old  = in1 ? d1 : 0;
+        }
+        if (move < 0 && old != 0)
+            move = move(old);
+        long d = pack(depth, flag, value, move);
+        keys[slot] = key ^ d;
+        data[slot] = d;
+    }
+
+    private long pack(int depth, int flag, int value, int move) {
+        return (value & 0xFFFFFFFFL)
+             | ((long)Math.min(depth, 0xFF) << 32)
+             | ((long)flag << 40)
+             | ((long)age << 42)
+             | ((long)(move + 1) << 48);
+    }
+
+    /**
+     * @param entry Entrada retornada por {@link #probe(long)}.
+     * @return      El valor guardado.
+     */
+    public static int value(long entry) {
+        return (int)entry;
+    }
+
+    /**
+     * @param entry Entrada retornada por {@link #probe(long)}.
+     * @return      La profundidad con la que se calculó el valor.
+     */
+    public static int depth(long entry) {
+        return (int)(entry >>> 32) & 0xFF;
+    }
+
+    /**
+     * @param entry Entrada retornada por {@link #probe(long)}.
+     * @return      El tipo de cota del valor.
+     */
+    public static int flag(long entry) {
+        return (int)(entry >>> 40) & 0x3;
+    }
+
+    /**
+     * @param entry Entrada retornada por {@link #probe(long)}.
+     * @return      El mejor movimiento como índice {@code x * size + y}, o {@code -1}.
+     */
+    public static int move(long entry) {
+        return (int)(entry >>> 48) - 1;
+    }
+
+    private static int ageOf(long entry) {
+        return (int)(entry >>> 42) & 0x3F;
+    }
+}